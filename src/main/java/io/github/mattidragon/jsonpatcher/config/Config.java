@@ -7,12 +7,19 @@ import io.github.mattidragon.configloader.api.DefaultedFieldCodec;
 import io.github.mattidragon.configloader.api.GenerateMutable;
 
 @GenerateMutable
-public record Config(boolean useJavaStacktrace, boolean useShortStacktrace, int patchTimeoutMillis, boolean abortOnFailure, boolean dumpPatchedFiles) implements MutableConfig.Source {
+public record Config(boolean useJavaStacktrace, boolean useShortStacktrace, int patchTimeoutMillis, boolean abortOnFailure, boolean dumpPatchedFiles, boolean cachePatchedFiles, int patchCacheSizeMb, int workerThreads, boolean prefetchPatchedFiles, boolean watchPatches, int spillThresholdKb, boolean dumpDiffsOnly) implements MutableConfig.Source {
     private static final Config DEFAULT = new Config(
             false,
             true,
             25,
             true,
+            false,
+            false,
+            256,
+            0,
+            false,
+            false,
+            0,
             false
     );
     public static final Codec<Config> CODEC = RecordCodecBuilder.create(instance -> instance.group(
@@ -20,7 +27,14 @@ public record Config(boolean useJavaStacktrace, boolean useShortStacktrace, int
             DefaultedFieldCodec.of(Codec.BOOL, "use_short_stacktrace", DEFAULT.useShortStacktrace).forGetter(Config::useShortStacktrace),
             DefaultedFieldCodec.of(Codec.INT, "patch_timeout_millis", DEFAULT.patchTimeoutMillis).forGetter(Config::patchTimeoutMillis),
             DefaultedFieldCodec.of(Codec.BOOL, "abort_reload_on_failure", DEFAULT.abortOnFailure).forGetter(Config::abortOnFailure),
-            DefaultedFieldCodec.of(Codec.BOOL, "dump_patched_files", DEFAULT.dumpPatchedFiles).forGetter(Config::dumpPatchedFiles)
+            DefaultedFieldCodec.of(Codec.BOOL, "dump_patched_files", DEFAULT.dumpPatchedFiles).forGetter(Config::dumpPatchedFiles),
+            DefaultedFieldCodec.of(Codec.BOOL, "cache_patched_files", DEFAULT.cachePatchedFiles).forGetter(Config::cachePatchedFiles),
+            DefaultedFieldCodec.of(Codec.INT, "patch_cache_size_mb", DEFAULT.patchCacheSizeMb).forGetter(Config::patchCacheSizeMb),
+            DefaultedFieldCodec.of(Codec.INT, "worker_threads", DEFAULT.workerThreads).forGetter(Config::workerThreads),
+            DefaultedFieldCodec.of(Codec.BOOL, "prefetch_patched_files", DEFAULT.prefetchPatchedFiles).forGetter(Config::prefetchPatchedFiles),
+            DefaultedFieldCodec.of(Codec.BOOL, "watch_patches", DEFAULT.watchPatches).forGetter(Config::watchPatches),
+            DefaultedFieldCodec.of(Codec.INT, "spill_threshold_kb", DEFAULT.spillThresholdKb).forGetter(Config::spillThresholdKb),
+            DefaultedFieldCodec.of(Codec.BOOL, "dump_diffs_only", DEFAULT.dumpDiffsOnly).forGetter(Config::dumpDiffsOnly)
     ).apply(instance, Config::new));
 
     public static final ConfigManager<Config> MANAGER = ConfigManager.create(CODEC, DEFAULT, "jsonpatcher");
@@ -1,30 +1,33 @@
 package io.github.mattidragon.jsonpatcher.metapatch;
 
-import com.google.gson.JsonObject;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.gson.JsonParseException;
 import io.github.mattidragon.jsonpatcher.lang.runtime.EvaluationException;
 import io.github.mattidragon.jsonpatcher.lang.runtime.Value;
 import io.github.mattidragon.jsonpatcher.lang.runtime.stdlib.DontBind;
 import io.github.mattidragon.jsonpatcher.lang.runtime.stdlib.LibraryBuilder;
-import io.github.mattidragon.jsonpatcher.misc.GsonConverter;
+import io.github.mattidragon.jsonpatcher.misc.ValueReader;
+import io.github.mattidragon.jsonpatcher.misc.ValueWriter;
 import io.github.mattidragon.jsonpatcher.patch.PatchingContext;
 import net.minecraft.resource.ResourceManager;
 import net.minecraft.util.Identifier;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 
 @SuppressWarnings("unused")
 public class MetapatchLibrary {
     @DontBind
-    private final Map<Identifier, JsonObject> addedFiles = new HashMap<>();
+    private final Map<Identifier, byte[]> addedFiles = new HashMap<>();
     @DontBind
     private final List<Identifier> deletedFiles = new ArrayList<>();
     @DontBind
     private final ResourceManager resourceManager;
+    // Hashes of the files read by the patch, null for missing files. The patch only needs to run again if one of them changes.
+    @DontBind
+    private final Map<Identifier, HashCode> reads = new HashMap<>();
 
     public MetapatchLibrary(ResourceManager resourceManager) {
         this.resourceManager = resourceManager;
@@ -35,12 +38,37 @@ public class MetapatchLibrary {
         metaPack.set(addedFiles, deletedFiles);
     }
 
+    /**
+     * Gets the changes made through this library along with the files read through it.
+     */
+    @DontBind
+    public Result getResult() {
+        return new Result(Map.copyOf(addedFiles), List.copyOf(deletedFiles), Collections.unmodifiableMap(new HashMap<>(reads)));
+    }
+
+    /**
+     * Applies the changes of another library on top of this one, as if they had been made to this library directly.
+     * Used to combine the results of meta patches that ran separately, each with their own library.
+     */
+    @DontBind
+    public void merge(Result other) {
+        other.addedFiles.forEach((id, file) -> {
+            deletedFiles.remove(id);
+            addedFiles.put(id, file);
+        });
+        for (var id : other.deletedFiles) {
+            addedFiles.remove(id);
+            deletedFiles.add(id);
+        }
+    }
+
     public void addFile(LibraryBuilder.FunctionContext context, Value.StringValue idString, Value.ObjectValue file) {
         var id = Identifier.tryParse(idString.value());
         if (id == null) throw new EvaluationException("Invalid identifier: " + idString.value(), context.callPos());
         try {
             deletedFiles.remove(id);
-            addedFiles.put(id, GsonConverter.toGson(file));
+            // Serialize right away, so the pack doesn't need to do it every time the file is opened
+            addedFiles.put(id, ValueWriter.write(file));
         } catch (IllegalStateException e) {
             throw new EvaluationException("Failed to convert to json: " + e.getMessage(), context.callPos());
         }
@@ -62,15 +90,28 @@ public class MetapatchLibrary {
             var resource = resourceManager.getResource(id);
             if (resource.isPresent()) {
                 try {
-                    return GsonConverter.fromGson(MetapatchResourcePack.GSON.fromJson(new InputStreamReader(resource.get().getInputStream()), JsonObject.class));
-                } catch (IllegalStateException e) {
-                    throw new EvaluationException("Failed to convert from json: " + e.getMessage(), context.callPos());
+                    byte[] bytes;
+                    try (var stream = resource.get().getInputStream()) {
+                        bytes = stream.readAllBytes();
+                    }
+                    reads.put(id, Hashing.sha256().hashBytes(bytes));
+                    return ValueReader.readObject(new ByteArrayInputStream(bytes));
+                } catch (JsonParseException e) {
+                    throw new EvaluationException("Failed to parse json: " + e.getMessage(), context.callPos());
                 } catch (IOException e) {
                     throw new EvaluationException("Failed to read file: " + e.getMessage(), context.callPos());
                 }
             }
         }
 
+        reads.put(id, null);
         return Value.NullValue.NULL;
     }
+
+    /**
+     * The outcome of running a meta patch with a library.
+     * @param reads The hashes of the files read by the patch, with null for files that were missing
+     */
+    public record Result(Map<Identifier, byte[]> addedFiles, List<Identifier> deletedFiles, Map<Identifier, HashCode> reads) {
+    }
 }
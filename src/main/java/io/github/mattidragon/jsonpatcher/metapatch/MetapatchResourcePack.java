@@ -1,7 +1,5 @@
 package io.github.mattidragon.jsonpatcher.metapatch;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonObject;
 import net.minecraft.SharedConstants;
 import net.minecraft.resource.*;
 import net.minecraft.resource.metadata.ResourceMetadataReader;
@@ -9,50 +7,70 @@ import net.minecraft.util.Identifier;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
-import java.io.OutputStreamWriter;
 import java.util.*;
+import java.util.function.BiConsumer;
 import java.util.function.Predicate;
 
+/**
+ * The resource pack holding the files added by meta patches. Files are stored as serialized json, indexed by namespace
+ * and path. The contents are replaced as a whole by publishing a new immutable snapshot, so readers never need to lock.
+ */
 public class MetapatchResourcePack implements ResourcePack {
-    public static final Gson GSON = new Gson();
-
     public final ResourceType type;
-    private final Map<Identifier, JsonObject> files = new HashMap<>();
-    private final Set<Identifier> deletedFiles = new HashSet<>();
-    private final Set<String> namespaces = new HashSet<>();
+    private volatile Contents contents = Contents.EMPTY;
 
     public MetapatchResourcePack(ResourceType type) {
         this.type = type;
     }
 
     public void clear() {
-        files.clear();
-        deletedFiles.clear();
-        namespaces.clear();
+        contents = Contents.EMPTY;
     }
 
-    public void set(Map<Identifier, JsonObject> files, Collection<Identifier> deletedFiles) {
-        this.files.clear();
-        this.files.putAll(files);
-        this.deletedFiles.clear();
-        this.deletedFiles.addAll(deletedFiles);
-        namespaces.clear();
-        files.keySet().forEach(id -> namespaces.add(id.getNamespace()));
+    public void set(Map<Identifier, byte[]> files, Collection<Identifier> deletedFiles) {
+        if (files.isEmpty() && deletedFiles.isEmpty()) {
+            contents = Contents.EMPTY;
+            return;
+        }
+        var paths = new HashMap<String, TreeMap<String, byte[]>>();
+        files.forEach((id, file) -> paths.computeIfAbsent(id.getNamespace(), namespace -> new TreeMap<>()).put(id.getPath(), file));
+
+        var immutablePaths = new HashMap<String, NavigableMap<String, byte[]>>();
+        paths.forEach((namespace, namespacePaths) -> immutablePaths.put(namespace, Collections.unmodifiableNavigableMap(namespacePaths)));
+        contents = new Contents(Map.copyOf(immutablePaths), Set.copyOf(deletedFiles));
     }
 
     public Set<Identifier> getDeletedFiles() {
-        return deletedFiles;
+        return contents.deletedFiles;
+    }
+
+    /**
+     * Checks whether the pack neither adds nor deletes any files, in which case it doesn't affect the resource manager at all.
+     */
+    public boolean isEmpty() {
+        return contents == Contents.EMPTY;
+    }
+
+    /**
+     * Checks whether the pack affects a file by either adding or deleting it.
+     */
+    public boolean affects(Identifier id) {
+        var contents = this.contents;
+        if (contents.deletedFiles.contains(id)) return true;
+        var paths = contents.paths.get(id.getNamespace());
+        return paths != null && paths.containsKey(id.getPath());
     }
 
     public Map<Identifier, Resource> findResources(String startingPath, Predicate<Identifier> allowedPathPredicate) {
         var map = new HashMap<Identifier, Resource>();
-        files.forEach((id, file) -> {
-            if (id.getPath().startsWith(startingPath) && allowedPathPredicate.test(id)) {
-                map.put(id, makeResource(id));
+        var contents = this.contents;
+        contents.paths.forEach((namespace, paths) -> forEachWithPrefix(paths, startingPath, (path, file) -> {
+            var id = new Identifier(namespace, path);
+            if (allowedPathPredicate.test(id)) {
+                map.put(id, new Resource(this, supplier(file)));
             }
-        });
+        }));
         return map;
     }
 
@@ -66,32 +84,26 @@ public class MetapatchResourcePack implements ResourcePack {
     @Override
     public InputSupplier<InputStream> open(ResourceType type, Identifier id) {
         if (type != this.type) return null;
-        var file = files.get(id);
+        var paths = contents.paths.get(id.getNamespace());
+        if (paths == null) return null;
+        var file = paths.get(id.getPath());
         if (file == null) return null;
 
-        return () -> {
-            var out = new ByteArrayOutputStream();
-            var writer = new OutputStreamWriter(out);
-            GSON.toJson(file, writer);
-            writer.close();
-            return new ByteArrayInputStream(out.toByteArray());
-        };
+        return supplier(file);
     }
 
     @Override
     public void findResources(ResourceType type, String namespace, String prefix, ResultConsumer consumer) {
         if (type != this.type) return;
+        var paths = contents.paths.get(namespace);
+        if (paths == null) return;
 
-        files.forEach((id, file) -> {
-            if (id.getNamespace().equals(namespace) && id.getPath().startsWith(prefix)) {
-                consumer.accept(id, open(type, id));
-            }
-        });
+        forEachWithPrefix(paths, prefix, (path, file) -> consumer.accept(new Identifier(namespace, path), supplier(file)));
     }
 
     @Override
     public Set<String> getNamespaces(ResourceType type) {
-        return namespaces;
+        return contents.paths.keySet();
     }
 
     @Nullable
@@ -124,6 +136,19 @@ public class MetapatchResourcePack implements ResourcePack {
             """.formatted(SharedConstants.getGameVersion().getResourceVersion(type));
     }
 
+    private static void forEachWithPrefix(NavigableMap<String, byte[]> paths, String prefix, BiConsumer<String, byte[]> action) {
+        // Paths with the prefix are sorted right after it
+        for (var entry : paths.tailMap(prefix, true).entrySet()) {
+            if (!entry.getKey().startsWith(prefix)) break;
+            action.accept(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private static InputSupplier<InputStream> supplier(byte[] file) {
+        // The array is never modified, so all streams can share it
+        return () -> new ByteArrayInputStream(file);
+    }
+
     @Nullable
     public Resource makeResource(Identifier id) {
         var supplier = open(type, id);
@@ -132,4 +157,8 @@ public class MetapatchResourcePack implements ResourcePack {
         }
         return null;
     }
+
+    private record Contents(Map<String, NavigableMap<String, byte[]>> paths, Set<Identifier> deletedFiles) {
+        private static final Contents EMPTY = new Contents(Map.of(), Set.of());
+    }
 }
@@ -1,63 +1,277 @@
 package io.github.mattidragon.jsonpatcher.misc;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.JsonElement;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.github.mattidragon.jsonpatcher.JsonPatcher;
 import io.github.mattidragon.jsonpatcher.config.Config;
+import io.github.mattidragon.jsonpatcher.lang.runtime.Value;
 import net.fabricmc.loader.api.FabricLoader;
 import net.minecraft.util.Identifier;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
-import java.io.OutputStreamWriter;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
 
+/**
+ * Dumps patched files for debugging. All file operations happen in order on a single background thread,
+ * so that dumping doesn't slow down reloads. The queue is bounded, so if the writer falls far behind, patching waits for it.
+ * <p>
+ * Dumps contain either the full patched files, or if {@code dump_diffs_only} is enabled, json patches from the original
+ * files to the patched ones, along with an index of the patches applied to each file.
+ */
 public class DumpManager {
-    private static final Gson DUMP_GSON = new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create();
+    private static final int QUEUE_SIZE = 1024;
+    private static final int BATCH_SIZE = 64;
+    private static final BlockingQueue<Task> QUEUE = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    private static final Thread WRITER = new Thread(DumpManager::runWriter, "JsonPatch Dump Writer");
+    // Deletes directories that were moved aside, so that cleaning doesn't hold up the writer
+    private static final ExecutorService CLEANER = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+            .setNameFormat("JsonPatch Dump Cleaner")
+            .setDaemon(true)
+            .build());
+    private static final String DELETING_INFIX = ".deleting-";
+    private static final String INDEX_FILE = "index.json";
+    private static final String DIFF_SUFFIX = ".diff.json";
+    // Patches applied to each dumped file, by dump directory. Only accessed by the writer.
+    private static final Map<Path, SortedMap<Identifier, List<Identifier>>> INDEXES = new HashMap<>();
+    private static final Set<Path> DIRTY_INDEXES = new HashSet<>();
 
-    public static void dumpIfEnabled(Identifier id, ReloadDescription description, JsonElement patchedData) {
-        if (Config.MANAGER.get().dumpPatchedFiles() && description.dumpPath() != null) {
+    static {
+        WRITER.setDaemon(true);
+        WRITER.start();
+    }
+
+    public static boolean isEnabled(ReloadDescription description) {
+        return Config.MANAGER.get().dumpPatchedFiles() && description.dumpPath() != null;
+    }
+
+    /**
+     * Queues a patched file to be dumped. The values are written later, so they must not be modified afterward.
+     * Files that patches left unchanged are dumped too, so that the dump and its index cover every file patches ran on.
+     * @param original Supplies the original file when dumping diffs. Called on the writer thread. May return null if
+     *                 the original is unavailable, in which case the full patched file is dumped.
+     * @param patches The patches applied to the file, for the index
+     */
+    public static void dumpIfEnabled(Identifier id, ReloadDescription description, Supplier<Value.ObjectValue> original, Value.ObjectValue patchedData, List<Identifier> patches) {
+        if (isEnabled(description)) {
+            var diff = Config.MANAGER.get().dumpDiffsOnly() ? original : null;
+            enqueue(new Task.Write(id, getDumpPath(description.dumpPath()), patchedData, diff, List.copyOf(patches)));
+        }
+    }
+
+    public static void deleteDump(Identifier id, ReloadDescription description) {
+        if (isEnabled(description)) {
+            enqueue(new Task.Delete(id, getDumpPath(description.dumpPath())));
+        }
+    }
+
+    /**
+     * Queues the removal of a dump directory. Files dumped after this call are kept.
+     */
+    public static void cleanDump(@Nullable String dumpLocation) {
+        if (dumpLocation == null) return;
+        enqueue(new Task.Clean(getDumpPath(dumpLocation)));
+    }
+
+    /**
+     * Waits until everything queued so far has been written.
+     */
+    public static void flush() {
+        var future = new CompletableFuture<Void>();
+        enqueue(new Task.Flush(future));
+        future.join();
+    }
+
+    private static void enqueue(Task task) {
+        try {
+            QUEUE.put(task);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            JsonPatcher.RELOAD_LOGGER.error("Interrupted while queueing dump task");
+            if (task instanceof Task.Flush flush) flush.future.complete(null);
+        }
+    }
+
+    private static void runWriter() {
+        var batch = new ArrayList<Task>(BATCH_SIZE);
+        // Directories known to exist, to avoid checking them again for every file
+        var directories = new HashSet<Path>();
+        while (true) {
             try {
-                var file = getDumpPath(description.dumpPath())
-                        .resolve(Path.of(id.getNamespace(), id.getPath().split("/")));
-                Files.createDirectories(file.getParent());
-                try (var writer = new OutputStreamWriter(Files.newOutputStream(file))) {
-                    DUMP_GSON.toJson(patchedData, writer);
+                batch.add(QUEUE.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            QUEUE.drainTo(batch, BATCH_SIZE - 1);
+            createDirectories(batch, directories);
+            for (var task : batch) {
+                try {
+                    run(task, directories);
+                } catch (RuntimeException e) {
+                    JsonPatcher.RELOAD_LOGGER.error("Unexpected error while dumping patched files", e);
                 }
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * Creates the directories for all writes in a batch up to the first clean, as cleaning removes them again.
+     */
+    private static void createDirectories(List<Task> batch, Set<Path> directories) {
+        var needed = new LinkedHashSet<Path>();
+        for (var task : batch) {
+            if (task instanceof Task.Clean) break;
+            if (task instanceof Task.Write write && !directories.contains(write.file().getParent())) {
+                needed.add(write.file().getParent());
+            }
+        }
+        for (var directory : needed) {
+            try {
+                Files.createDirectories(directory);
+                directories.add(directory);
             } catch (IOException e) {
-                JsonPatcher.RELOAD_LOGGER.error("Failed to dump patched file {}", id, e);
+                // The write will fail with a more specific error
             }
         }
     }
 
-    public static void cleanDump(@Nullable String dumpLocation) {
-        if (dumpLocation == null) return;
+    private static void run(Task task, Set<Path> directories) {
+        if (task instanceof Task.Write write) {
+            var file = write.file();
+            try {
+                if (!directories.contains(file.getParent())) {
+                    Files.createDirectories(file.getParent());
+                    directories.add(file.getParent());
+                }
+                var original = write.original == null ? null : write.original.get();
+                if (original == null) file = write.dumpDirectory.resolve(toRelativePath(write.id, false));
+                try (var out = Files.newOutputStream(file)) {
+                    if (original == null) {
+                        ValueWriter.write(write.value, true, out);
+                    } else {
+                        // Operations setting json null need their value written explicitly
+                        ValueWriter.write(JsonDiff.diff(original, write.value), true, true, out);
+                    }
+                }
+                if (write.original != null) {
+                    INDEXES.computeIfAbsent(write.dumpDirectory, dir -> new TreeMap<>()).put(write.id, write.patches);
+                    DIRTY_INDEXES.add(write.dumpDirectory);
+                }
+            } catch (IOException | RuntimeException e) {
+                JsonPatcher.RELOAD_LOGGER.error("Failed to dump patched file {}", write.id, e);
+            }
+        } else if (task instanceof Task.Delete delete) {
+            try {
+                // The file may have been dumped in either mode
+                Files.deleteIfExists(delete.dumpDirectory.resolve(toRelativePath(delete.id, false)));
+                Files.deleteIfExists(delete.dumpDirectory.resolve(toRelativePath(delete.id, true)));
+                var index = INDEXES.get(delete.dumpDirectory);
+                if (index != null && index.remove(delete.id) != null) DIRTY_INDEXES.add(delete.dumpDirectory);
+            } catch (IOException e) {
+                JsonPatcher.RELOAD_LOGGER.error("Failed to delete dump of {}", delete.id, e);
+            }
+        } else if (task instanceof Task.Clean clean) {
+            directories.clear();
+            INDEXES.keySet().removeIf(dir -> dir.startsWith(clean.directory));
+            DIRTY_INDEXES.removeIf(dir -> dir.startsWith(clean.directory));
+            clean(clean.directory);
+        } else if (task instanceof Task.Flush flush) {
+            writeIndexes();
+            flush.future.complete(null);
+        }
+    }
 
-        var file = getDumpPath(dumpLocation);
-        if (Files.exists(file)) {
-            var errors = new ArrayList<IOException>();
-            try (var stream = Files.walk(file)) {
-                stream.sorted(Comparator.reverseOrder())
-                        .forEach(path -> {
-                            try {
-                                Files.delete(path);
-                            } catch (IOException e) {
-                                errors.add(e);
-                            }
-                        });
-                if (!errors.isEmpty()) {
-                    var error = new IOException("Errors while deleting dumped files");
-                    errors.forEach(error::addSuppressed);
-                    throw error;
+    private static void writeIndexes() {
+        for (var directory : DIRTY_INDEXES) {
+            var index = new Value.ObjectValue();
+            INDEXES.getOrDefault(directory, Collections.emptySortedMap()).forEach((id, patches) -> {
+                var array = new Value.ArrayValue();
+                patches.forEach(patch -> array.value().add(new Value.StringValue(patch.toString())));
+                index.value().put(id.toString(), array);
+            });
+            try {
+                Files.createDirectories(directory);
+                try (var out = Files.newOutputStream(directory.resolve(INDEX_FILE))) {
+                    ValueWriter.write(index, true, out);
                 }
             } catch (IOException e) {
-                JsonPatcher.RELOAD_LOGGER.error("Failed to clean dump directory", e);
+                JsonPatcher.RELOAD_LOGGER.error("Failed to write dump index to {}", directory, e);
             }
         }
+        DIRTY_INDEXES.clear();
+    }
+
+    /**
+     * Moves the directory aside and deletes it on the cleaner thread. Deleting in place is only a fallback, as it's much slower.
+     * Directories left aside by earlier cleans are deleted as well, in case the game closed before they were.
+     */
+    private static void clean(Path directory) {
+        var deleting = findMovedAside(directory);
+        if (Files.exists(directory)) {
+            var moved = directory.resolveSibling(directory.getFileName() + DELETING_INFIX + System.nanoTime());
+            try {
+                Files.move(directory, moved);
+                deleting.add(moved);
+            } catch (IOException e) {
+                JsonPatcher.RELOAD_LOGGER.debug("Failed to move dump directory aside, deleting it in place", e);
+                delete(directory);
+            }
+        }
+        if (!deleting.isEmpty()) {
+            CLEANER.execute(() -> deleting.forEach(DumpManager::delete));
+        }
+    }
+
+    private static List<Path> findMovedAside(Path directory) {
+        var parent = directory.getParent();
+        var prefix = directory.getFileName() + DELETING_INFIX;
+        var found = new ArrayList<Path>();
+        if (parent == null || !Files.isDirectory(parent)) return found;
+        try (var stream = Files.newDirectoryStream(parent, path -> path.getFileName().toString().startsWith(prefix))) {
+            stream.forEach(found::add);
+        } catch (IOException e) {
+            JsonPatcher.RELOAD_LOGGER.debug("Failed to look for old dump directories next to {}", directory, e);
+        }
+        return found;
+    }
+
+    private static void delete(Path directory) {
+        // Directories may be found again by later cleans while they are still queued for deletion
+        if (!Files.exists(directory)) return;
+        var errors = new ArrayList<IOException>();
+        try (var stream = Files.walk(directory)) {
+            stream.sorted(Comparator.reverseOrder())
+                    .forEach(path -> {
+                        try {
+                            Files.delete(path);
+                        } catch (IOException e) {
+                            errors.add(e);
+                        }
+                    });
+            if (!errors.isEmpty()) {
+                var error = new IOException("Errors while deleting dumped files");
+                errors.forEach(error::addSuppressed);
+                throw error;
+            }
+        } catch (IOException e) {
+            JsonPatcher.RELOAD_LOGGER.error("Failed to clean dump directory", e);
+        }
+    }
+
+    private static Path toRelativePath(Identifier id, boolean diff) {
+        var path = id.getPath();
+        if (diff) {
+            path = (path.endsWith(".json") ? path.substring(0, path.length() - ".json".length()) : path) + DIFF_SUFFIX;
+        }
+        return Path.of(id.getNamespace(), path.split("/"));
     }
 
     private static Path getDumpPath(String dumpLocation) {
@@ -65,4 +279,24 @@ public class DumpManager {
                 .resolve("jsonpatcher-dump")
                 .resolve(dumpLocation);
     }
+
+    private sealed interface Task {
+        /**
+         * @param original Supplies the original file if dumping a diff, otherwise null
+         */
+        record Write(Identifier id, Path dumpDirectory, Value.ObjectValue value, @Nullable Supplier<Value.ObjectValue> original, List<Identifier> patches) implements Task {
+            Path file() {
+                return dumpDirectory.resolve(toRelativePath(id, original != null));
+            }
+        }
+
+        record Delete(Identifier id, Path dumpDirectory) implements Task {
+        }
+
+        record Clean(Path directory) implements Task {
+        }
+
+        record Flush(CompletableFuture<Void> future) implements Task {
+        }
+    }
 }
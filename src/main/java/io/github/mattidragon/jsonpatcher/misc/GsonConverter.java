@@ -20,7 +20,7 @@ public class GsonConverter {
             }
             if (value instanceof Value.ObjectValue objectValue) return toGson(objectValue);
             if (value instanceof Value.ArrayValue arrayValue) return toGson(arrayValue);
-            if (value instanceof Value.NumberValue numberValue) return new JsonPrimitive(numberValue.value());
+            if (value instanceof Value.NumberValue numberValue) return toGson(numberValue.value());
             if (value instanceof Value.StringValue stringValue) return new JsonPrimitive(stringValue.value());
             if (value instanceof Value.BooleanValue booleanValue) return new JsonPrimitive(booleanValue.value());
             if (value instanceof Value.NullValue) return JsonNull.INSTANCE;
@@ -30,9 +30,17 @@ public class GsonConverter {
         }
     }
 
+    private static JsonPrimitive toGson(double number) {
+        // Integers become longs, like when ValueWriter writes them, so that they look the same as if parsed from json
+        if (number == Math.rint(number) && Math.abs(number) < 1e15) return new JsonPrimitive((long) number);
+        return new JsonPrimitive(number);
+    }
+
     public static JsonObject toGson(Value.ObjectValue value) {
         JsonObject object = new JsonObject();
         for (var entry : value.value().entrySet()) {
+            // Null entries are left out, like when ValueWriter writes them, so that the trees match
+            if (entry.getValue() instanceof Value.NullValue) continue;
             object.add(entry.getKey(), toGson(entry.getValue()));
         }
         return object;
@@ -0,0 +1,122 @@
+package io.github.mattidragon.jsonpatcher.misc;
+
+import io.github.mattidragon.jsonpatcher.lang.runtime.Value;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Computes structural diffs between json trees as <a href="https://datatracker.ietf.org/doc/html/rfc6902">RFC 6902</a> json patches.
+ * The diffs are meant for reading rather than being minimal: objects are compared key by key and arrays index by index,
+ * so an insertion into the middle of an array shows up as a replacement of every later element.
+ */
+public class JsonDiff {
+    private JsonDiff() {
+    }
+
+    /**
+     * Computes the operations that turn the original tree into the patched one.
+     * The operations share values with the patched tree, so it must not be modified while they are in use.
+     * <p>
+     * The value of an operation may be json null, which has to be written out explicitly, so the operations must be
+     * written with null members kept. Values never contain null members themselves, as those are left out of patched files.
+     */
+    public static Value.ArrayValue diff(Value original, Value patched) {
+        var operations = new Value.ArrayValue();
+        diff(original, patched, "", operations);
+        return operations;
+    }
+
+    private static void diff(Value original, Value patched, String path, Value.ArrayValue operations) {
+        if (original instanceof Value.ObjectValue originalObject && patched instanceof Value.ObjectValue patchedObject) {
+            // Null entries are left out when writing objects, so they count as missing here as well
+            for (var entry : originalObject.value().entrySet()) {
+                if (entry.getValue() instanceof Value.NullValue) continue;
+                var childPath = path + "/" + escape(entry.getKey());
+                var patchedValue = patchedObject.value().get(entry.getKey());
+                if (patchedValue == null || patchedValue instanceof Value.NullValue) {
+                    operations.value().add(operation("remove", childPath, null));
+                } else {
+                    diff(entry.getValue(), patchedValue, childPath, operations);
+                }
+            }
+            for (var entry : patchedObject.value().entrySet()) {
+                if (entry.getValue() instanceof Value.NullValue) continue;
+                var originalValue = originalObject.value().get(entry.getKey());
+                if (originalValue == null || originalValue instanceof Value.NullValue) {
+                    operations.value().add(operation("add", path + "/" + escape(entry.getKey()), entry.getValue()));
+                }
+            }
+        } else if (original instanceof Value.ArrayValue originalArray && patched instanceof Value.ArrayValue patchedArray) {
+            var originalList = originalArray.value();
+            var patchedList = patchedArray.value();
+            var common = Math.min(originalList.size(), patchedList.size());
+            for (int i = 0; i < common; i++) {
+                diff(originalList.get(i), patchedList.get(i), path + "/" + i, operations);
+            }
+            // Remove from the end, so that earlier indices stay valid
+            for (int i = originalList.size() - 1; i >= common; i--) {
+                operations.value().add(operation("remove", path + "/" + i, null));
+            }
+            for (int i = common; i < patchedList.size(); i++) {
+                operations.value().add(operation("add", path + "/" + i, patchedList.get(i)));
+            }
+        } else if (original instanceof Value.ObjectValue || original instanceof Value.ArrayValue || !original.equals(patched)) {
+            // Different types, or primitives with different values. Primitives are records or enums, which compare by value.
+            operations.value().add(operation("replace", path, patched));
+        }
+    }
+
+    private static Value.ObjectValue operation(String op, String path, @Nullable Value value) {
+        var operation = new Value.ObjectValue();
+        operation.value().put("op", new Value.StringValue(op));
+        operation.value().put("path", new Value.StringValue(path));
+        if (value != null) operation.value().put("value", withoutNullMembers(value));
+        return operation;
+    }
+
+    /**
+     * Removes null members from a value, copying only the containers that have them.
+     */
+    private static Value withoutNullMembers(Value value) {
+        if (value instanceof Value.ObjectValue objectValue) {
+            Value.ObjectValue copy = null;
+            var index = 0;
+            for (var entry : objectValue.value().entrySet()) {
+                var child = entry.getValue() instanceof Value.NullValue ? null : withoutNullMembers(entry.getValue());
+                if (copy == null && child != entry.getValue()) {
+                    // First difference, copy the members before it
+                    copy = new Value.ObjectValue();
+                    var iterator = objectValue.value().entrySet().iterator();
+                    for (int i = 0; i < index; i++) {
+                        var previous = iterator.next();
+                        copy.value().put(previous.getKey(), previous.getValue());
+                    }
+                }
+                if (copy != null && child != null) copy.value().put(entry.getKey(), child);
+                index++;
+            }
+            return copy == null ? value : copy;
+        }
+        if (value instanceof Value.ArrayValue arrayValue) {
+            var list = arrayValue.value();
+            Value.ArrayValue copy = null;
+            for (int i = 0; i < list.size(); i++) {
+                var child = withoutNullMembers(list.get(i));
+                if (copy == null && child != list.get(i)) {
+                    copy = new Value.ArrayValue();
+                    copy.value().addAll(list.subList(0, i));
+                }
+                if (copy != null) copy.value().add(child);
+            }
+            return copy == null ? value : copy;
+        }
+        return value;
+    }
+
+    /**
+     * Escapes a key for use in a json pointer.
+     */
+    private static String escape(String key) {
+        if (key.indexOf('~') == -1 && key.indexOf('/') == -1) return key;
+        return key.replace("~", "~0").replace("/", "~1");
+    }
+}
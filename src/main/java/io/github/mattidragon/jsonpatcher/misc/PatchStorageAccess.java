@@ -0,0 +1,11 @@
+package io.github.mattidragon.jsonpatcher.misc;
+
+import io.github.mattidragon.jsonpatcher.patch.PatchStorage;
+import org.jetbrains.annotations.Nullable;
+
+public interface PatchStorageAccess {
+    @Nullable
+    PatchStorage jsonpatcher$getPatchStorage();
+
+    void jsonpatcher$setPatchStorage(@Nullable PatchStorage storage);
+}
@@ -0,0 +1,76 @@
+package io.github.mattidragon.jsonpatcher.misc;
+
+import com.google.common.collect.Sets;
+import io.github.mattidragon.jsonpatcher.lang.runtime.Value;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Deep copies value trees. {@link #copy} only supports values representable as json, while {@link #copyGraph} supports any values.
+ */
+public class ValueCopier {
+    private static final ThreadLocal<Set<Value>> RECURSION_TRACKER = ThreadLocal.withInitial(Sets::newIdentityHashSet);
+
+    private ValueCopier() {
+    }
+
+    public static Value copy(Value value) {
+        try {
+            if (!RECURSION_TRACKER.get().add(value)) {
+                throw new IllegalStateException("recursive value tree");
+            }
+            if (value instanceof Value.ObjectValue objectValue) return copy(objectValue);
+            if (value instanceof Value.ArrayValue arrayValue) return copy(arrayValue);
+            // Primitives are immutable and can be shared
+            if (value instanceof Value.NumberValue || value instanceof Value.StringValue || value instanceof Value.BooleanValue || value instanceof Value.NullValue) return value;
+            throw new IllegalStateException("Can't copy %s".formatted(value));
+        } finally {
+            RECURSION_TRACKER.get().remove(value);
+        }
+    }
+
+    public static Value.ObjectValue copy(Value.ObjectValue value) {
+        var copy = new Value.ObjectValue();
+        for (var entry : value.value().entrySet()) {
+            copy.value().put(entry.getKey(), copy(entry.getValue()));
+        }
+        return copy;
+    }
+
+    /**
+     * Deep copies a value graph that may contain any values. Containers are copied once each, keeping both shared and
+     * recursive references intact. Everything else, including functions, is shared.
+     * @param copies Copies made so far, by original. Reuse the map to keep references between multiple graphs intact.
+     */
+    public static Value copyGraph(Value value, Map<Value, Value> copies) {
+        var existing = copies.get(value);
+        if (existing != null) return existing;
+
+        if (value instanceof Value.ObjectValue objectValue) {
+            var copy = new Value.ObjectValue();
+            copies.put(value, copy);
+            for (var entry : objectValue.value().entrySet()) {
+                copy.value().put(entry.getKey(), copyGraph(entry.getValue(), copies));
+            }
+            return copy;
+        }
+        if (value instanceof Value.ArrayValue arrayValue) {
+            var copy = new Value.ArrayValue();
+            copies.put(value, copy);
+            for (var entry : arrayValue.value()) {
+                copy.value().add(copyGraph(entry, copies));
+            }
+            return copy;
+        }
+        return value;
+    }
+
+    public static Value.ArrayValue copy(Value.ArrayValue value) {
+        var copy = new Value.ArrayValue();
+        for (var entry : value.value()) {
+            copy.value().add(copy(entry));
+        }
+        return copy;
+    }
+}
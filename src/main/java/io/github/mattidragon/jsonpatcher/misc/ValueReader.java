@@ -0,0 +1,78 @@
+package io.github.mattidragon.jsonpatcher.misc;
+
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+import io.github.mattidragon.jsonpatcher.lang.runtime.Value;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Streams json directly into {@link Value} trees. Avoids building a gson tree only to convert it right after.
+ */
+public class ValueReader {
+    private ValueReader() {
+    }
+
+    /**
+     * Reads a json object from a stream. The stream is closed afterward.
+     * @throws JsonSyntaxException If the json is malformed or the document isn't an object
+     * @throws IOException If the stream fails to be read
+     */
+    public static Value.ObjectValue readObject(InputStream stream) throws IOException {
+        try (var reader = new JsonReader(new InputStreamReader(stream, StandardCharsets.UTF_8))) {
+            // Match the leniency of Gson#fromJson
+            reader.setLenient(true);
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                throw new JsonSyntaxException("Expected json object, was %s".formatted(reader.peek()));
+            }
+            var value = readObject(reader);
+            if (reader.peek() != JsonToken.END_DOCUMENT) {
+                throw new JsonSyntaxException("JSON document was not fully consumed.");
+            }
+            return value;
+        } catch (MalformedJsonException | IllegalStateException e) {
+            throw new JsonSyntaxException(e);
+        }
+    }
+
+    private static Value read(JsonReader reader) throws IOException {
+        return switch (reader.peek()) {
+            case BEGIN_OBJECT -> readObject(reader);
+            case BEGIN_ARRAY -> readArray(reader);
+            case STRING -> new Value.StringValue(reader.nextString());
+            case NUMBER -> new Value.NumberValue(reader.nextDouble());
+            case BOOLEAN -> Value.BooleanValue.of(reader.nextBoolean());
+            case NULL -> {
+                reader.nextNull();
+                yield Value.NullValue.NULL;
+            }
+            default -> throw new JsonSyntaxException("Unexpected token %s at %s".formatted(reader.peek(), reader.getPath()));
+        };
+    }
+
+    private static Value.ObjectValue readObject(JsonReader reader) throws IOException {
+        var value = new Value.ObjectValue();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            var key = reader.nextName();
+            value.value().put(key, read(reader));
+        }
+        reader.endObject();
+        return value;
+    }
+
+    private static Value.ArrayValue readArray(JsonReader reader) throws IOException {
+        var value = new Value.ArrayValue();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            value.value().add(read(reader));
+        }
+        reader.endArray();
+        return value;
+    }
+}
@@ -0,0 +1,174 @@
+package io.github.mattidragon.jsonpatcher.misc;
+
+import io.github.mattidragon.jsonpatcher.lang.runtime.Value;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * A shallow snapshot of all containers in a json value tree. Taking one only copies references to the children of each
+ * object and array, while restoring it rebuilds the tree as it was when the snapshot was taken.
+ * This allows a single tree to be reused across many patches while still discarding the changes of failed ones.
+ * <p>
+ * Snapshots never change once taken, so later snapshots of the same tree share the entries of containers that weren't
+ * touched in between, see {@link #update}.
+ */
+public class ValueSnapshot {
+    private final Value.ObjectValue root;
+    private final Map<Value.ObjectValue, Object[]> objects;
+    private final Map<Value.ArrayValue, Value[]> arrays;
+
+    private ValueSnapshot(Value.ObjectValue root, Map<Value.ObjectValue, Object[]> objects, Map<Value.ArrayValue, Value[]> arrays) {
+        this.root = root;
+        this.objects = objects;
+        this.arrays = arrays;
+    }
+
+    /**
+     * Takes a snapshot of a tree. While doing so the tree is validated to be proper json and containers that appear
+     * multiple times in the tree are replaced by copies, so that changes to one of them don't show up in the others.
+     * @throws IllegalStateException If the tree is recursive or contains non-json values
+     */
+    public static ValueSnapshot take(Value.ObjectValue root) {
+        var snapshot = new ValueSnapshot(root, new IdentityHashMap<>(), new IdentityHashMap<>());
+        snapshot.visit(root, null);
+        return snapshot;
+    }
+
+    /**
+     * Takes a snapshot of a tree that may have changed since this snapshot was taken, validating it like {@link #take}.
+     * Containers that still hold the same children share their entries with this snapshot instead of copying them again,
+     * so the untouched parts of the tree are only compared. This snapshot is left as is.
+     * @throws IllegalStateException If the tree is recursive or contains non-json values
+     */
+    public ValueSnapshot update(Value.ObjectValue root) {
+        var snapshot = new ValueSnapshot(root, new IdentityHashMap<>(), new IdentityHashMap<>());
+        snapshot.visit(root, this);
+        return snapshot;
+    }
+
+    /**
+     * Rebuilds the tree as it was when this snapshot was taken. The rebuilt tree doesn't share any containers with the
+     * original, so it's unaffected by anything still holding onto the old tree.
+     */
+    public Value.ObjectValue restore() {
+        return rebuild(root);
+    }
+
+    /**
+     * Checks whether the tree of this snapshot is equal to the tree of another snapshot, as they were when the snapshots were taken.
+     * Containers are compared by content, so replacing a value with an equal one doesn't count as a change.
+     */
+    public boolean contentEquals(ValueSnapshot other) {
+        return contentEquals(root, other, other.root);
+    }
+
+    private boolean contentEquals(Value value, ValueSnapshot other, Value otherValue) {
+        if (value instanceof Value.ObjectValue objectValue) {
+            if (!(otherValue instanceof Value.ObjectValue otherObject)) return false;
+            var entries = objects.get(objectValue);
+            var otherEntries = other.objects.get(otherObject);
+            if (entries.length != otherEntries.length) return false;
+            for (int i = 0; i < entries.length; i += 2) {
+                if (!entries[i].equals(otherEntries[i])) return false;
+                if (!contentEquals((Value) entries[i + 1], other, (Value) otherEntries[i + 1])) return false;
+            }
+            return true;
+        }
+        if (value instanceof Value.ArrayValue arrayValue) {
+            if (!(otherValue instanceof Value.ArrayValue otherArray)) return false;
+            var entries = arrays.get(arrayValue);
+            var otherEntries = other.arrays.get(otherArray);
+            if (entries.length != otherEntries.length) return false;
+            for (int i = 0; i < entries.length; i++) {
+                if (!contentEquals(entries[i], other, otherEntries[i])) return false;
+            }
+            return true;
+        }
+        // Primitives are records or enums, which compare by value
+        return value.equals(otherValue);
+    }
+
+    private void visit(Value value, @Nullable ValueSnapshot previous) {
+        if (value instanceof Value.ObjectValue objectValue) {
+            // Claim the container before visiting children to detect recursion
+            objects.put(objectValue, null);
+            var size = objectValue.value().size() * 2;
+            var old = previous == null ? null : previous.objects.get(objectValue);
+            // Share the entries of the previous snapshot until a child differs
+            var entries = old != null && old.length == size ? old : new Object[size];
+            var i = 0;
+            for (var entry : objectValue.value().entrySet()) {
+                if (isVisited(entry.getValue())) {
+                    entry.setValue(ValueCopier.copy(entry.getValue()));
+                }
+                visit(entry.getValue(), previous);
+                if (entries == old) {
+                    if (old[i].equals(entry.getKey()) && old[i + 1] == entry.getValue()) {
+                        i += 2;
+                        continue;
+                    }
+                    entries = Arrays.copyOf(old, size);
+                }
+                entries[i++] = entry.getKey();
+                entries[i++] = entry.getValue();
+            }
+            objects.put(objectValue, entries);
+        } else if (value instanceof Value.ArrayValue arrayValue) {
+            arrays.put(arrayValue, null);
+            var list = arrayValue.value();
+            var old = previous == null ? null : previous.arrays.get(arrayValue);
+            var entries = old != null && old.length == list.size() ? old : new Value[list.size()];
+            for (int i = 0; i < entries.length; i++) {
+                if (isVisited(list.get(i))) {
+                    list.set(i, ValueCopier.copy(list.get(i)));
+                }
+                visit(list.get(i), previous);
+                if (entries == old) {
+                    if (old[i] == list.get(i)) continue;
+                    entries = Arrays.copyOf(old, old.length);
+                }
+                entries[i] = list.get(i);
+            }
+            arrays.put(arrayValue, entries);
+        } else if (!(value instanceof Value.NumberValue || value instanceof Value.StringValue || value instanceof Value.BooleanValue || value instanceof Value.NullValue)) {
+            throw new IllegalStateException("Can't convert %s to json".formatted(value));
+        }
+    }
+
+    private boolean isVisited(Value value) {
+        if (value instanceof Value.ObjectValue objectValue && objects.containsKey(objectValue)) {
+            if (objects.get(objectValue) == null) throw new IllegalStateException("recursive value tree");
+            return true;
+        }
+        if (value instanceof Value.ArrayValue arrayValue && arrays.containsKey(arrayValue)) {
+            if (arrays.get(arrayValue) == null) throw new IllegalStateException("recursive value tree");
+            return true;
+        }
+        return false;
+    }
+
+    private Value rebuild(Value value) {
+        if (value instanceof Value.ObjectValue objectValue) return rebuild(objectValue);
+        if (value instanceof Value.ArrayValue arrayValue) {
+            var entries = arrays.get(arrayValue);
+            var copy = new Value.ArrayValue();
+            for (var entry : entries) {
+                copy.value().add(rebuild(entry));
+            }
+            return copy;
+        }
+        return value;
+    }
+
+    private Value.ObjectValue rebuild(Value.ObjectValue value) {
+        var entries = objects.get(value);
+        var copy = new Value.ObjectValue();
+        for (int i = 0; i < entries.length; i += 2) {
+            copy.value().put((String) entries[i], rebuild((Value) entries[i + 1]));
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,230 @@
+package io.github.mattidragon.jsonpatcher.misc;
+
+import io.github.mattidragon.jsonpatcher.lang.runtime.Value;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Serializes json value trees straight to UTF-8 bytes. Encoding happens in a reusable per-thread buffer,
+ * so the only allocation for a compact write is the final array.
+ */
+public class ValueWriter {
+    private static final int INITIAL_BUFFER_SIZE = 8192;
+    // Buffers larger than this are dropped after use to avoid keeping lots of memory around on idle threads
+    private static final int MAX_RETAINED_BUFFER_SIZE = 1 << 20;
+    private static final int MAX_DEPTH = 1024;
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+    private static final ThreadLocal<ValueWriter> WRITERS = ThreadLocal.withInitial(ValueWriter::new);
+
+    private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+    private int size = 0;
+    private boolean pretty = false;
+    private boolean keepNullMembers = false;
+    private boolean inUse = false;
+
+    private ValueWriter() {
+    }
+
+    /**
+     * Serializes a value into compact json.
+     * @return A new array containing exactly the serialized json
+     * @throws IllegalStateException If the value contains non-json values or is recursive
+     */
+    public static byte[] write(Value value) {
+        var writer = acquire(false);
+        try {
+            writer.writeValue(value, 0);
+            return Arrays.copyOf(writer.buffer, writer.size);
+        } finally {
+            writer.release();
+        }
+    }
+
+    /**
+     * Serializes a value into json and writes it to a stream. The stream is not closed.
+     * @param pretty Whether to pretty print the json with two space indentation
+     * @throws IllegalStateException If the value contains non-json values or is recursive
+     */
+    public static void write(Value value, boolean pretty, OutputStream out) throws IOException {
+        write(value, pretty, false, out);
+    }
+
+    /**
+     * Serializes a value into json and writes it to a stream. The stream is not closed.
+     * @param pretty Whether to pretty print the json with two space indentation
+     * @param keepNullMembers Whether to write members of objects that are null instead of leaving them out
+     * @throws IllegalStateException If the value contains non-json values or is recursive
+     */
+    public static void write(Value value, boolean pretty, boolean keepNullMembers, OutputStream out) throws IOException {
+        var writer = acquire(pretty);
+        writer.keepNullMembers = keepNullMembers;
+        try {
+            writer.writeValue(value, 0);
+            out.write(writer.buffer, 0, writer.size);
+        } finally {
+            writer.release();
+        }
+    }
+
+    private static ValueWriter acquire(boolean pretty) {
+        var writer = WRITERS.get();
+        // Shouldn't happen, but avoid corrupting the buffer of an outer write just in case
+        if (writer.inUse) writer = new ValueWriter();
+        writer.inUse = true;
+        writer.pretty = pretty;
+        writer.keepNullMembers = false;
+        writer.size = 0;
+        return writer;
+    }
+
+    private void release() {
+        inUse = false;
+        if (buffer.length > MAX_RETAINED_BUFFER_SIZE) {
+            buffer = new byte[INITIAL_BUFFER_SIZE];
+        }
+    }
+
+    private void writeValue(Value value, int depth) {
+        if (depth > MAX_DEPTH) throw new IllegalStateException("recursive value tree");
+
+        if (value instanceof Value.ObjectValue objectValue) {
+            writeByte('{');
+            var first = true;
+            for (var entry : objectValue.value().entrySet()) {
+                // Gson drops null members by default, keep doing that for consistent output
+                if (entry.getValue() instanceof Value.NullValue && !keepNullMembers) continue;
+                if (!first) writeByte(',');
+                first = false;
+                writeNewline(depth + 1);
+                writeString(entry.getKey());
+                writeByte(':');
+                if (pretty) writeByte(' ');
+                writeValue(entry.getValue(), depth + 1);
+            }
+            if (!first) writeNewline(depth);
+            writeByte('}');
+        } else if (value instanceof Value.ArrayValue arrayValue) {
+            var list = arrayValue.value();
+            if (list.isEmpty()) {
+                writeAscii("[]");
+                return;
+            }
+            writeByte('[');
+            for (int i = 0; i < list.size(); i++) {
+                if (i != 0) writeByte(',');
+                writeNewline(depth + 1);
+                writeValue(list.get(i), depth + 1);
+            }
+            writeNewline(depth);
+            writeByte(']');
+        } else if (value instanceof Value.StringValue stringValue) {
+            writeString(stringValue.value());
+        } else if (value instanceof Value.NumberValue numberValue) {
+            writeNumber(numberValue.value());
+        } else if (value instanceof Value.BooleanValue booleanValue) {
+            writeAscii(booleanValue.value() ? "true" : "false");
+        } else if (value instanceof Value.NullValue) {
+            writeAscii("null");
+        } else {
+            throw new IllegalStateException("Can't convert %s to json".formatted(value));
+        }
+    }
+
+    private void writeNumber(double number) {
+        // Write integers without a trailing .0, this is both shorter and faster for minecraft to parse
+        if (number == Math.rint(number) && Math.abs(number) < 1e15) {
+            writeAscii(Long.toString((long) number));
+        } else {
+            writeAscii(Double.toString(number));
+        }
+    }
+
+    private void writeNewline(int depth) {
+        if (!pretty) return;
+        ensureCapacity(1 + depth * 2);
+        buffer[size++] = '\n';
+        for (int i = 0; i < depth * 2; i++) {
+            buffer[size++] = ' ';
+        }
+    }
+
+    private void writeString(String string) {
+        // Worst case is six bytes per char (\\u0000) plus quotes
+        ensureCapacity(string.length() * 6 + 2);
+        var buffer = this.buffer;
+        var size = this.size;
+        buffer[size++] = '"';
+        for (int i = 0; i < string.length(); i++) {
+            var c = string.charAt(i);
+            if (c < 0x80) {
+                if (c == '"' || c == '\\') {
+                    buffer[size++] = '\\';
+                    buffer[size++] = (byte) c;
+                } else if (c < 0x20) {
+                    buffer[size++] = '\\';
+                    switch (c) {
+                        case '\n' -> buffer[size++] = 'n';
+                        case '\r' -> buffer[size++] = 'r';
+                        case '\t' -> buffer[size++] = 't';
+                        case '\b' -> buffer[size++] = 'b';
+                        case '\f' -> buffer[size++] = 'f';
+                        default -> size = writeUnicodeEscape(buffer, size, c);
+                    }
+                } else {
+                    buffer[size++] = (byte) c;
+                }
+            } else if (c < 0x800) {
+                buffer[size++] = (byte) (0xC0 | (c >> 6));
+                buffer[size++] = (byte) (0x80 | (c & 0x3F));
+            } else if (c == '\u2028' || c == '\u2029') {
+                // Valid json, but breaks javascript parsers. Escape for consistency with gson.
+                buffer[size++] = '\\';
+                size = writeUnicodeEscape(buffer, size, c);
+            } else if (Character.isHighSurrogate(c) && i + 1 < string.length() && Character.isLowSurrogate(string.charAt(i + 1))) {
+                var codePoint = Character.toCodePoint(c, string.charAt(++i));
+                buffer[size++] = (byte) (0xF0 | (codePoint >> 18));
+                buffer[size++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                buffer[size++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buffer[size++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // Unpaired surrogate, replace like the standard UTF-8 encoder does
+                buffer[size++] = '?';
+            } else {
+                buffer[size++] = (byte) (0xE0 | (c >> 12));
+                buffer[size++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[size++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        buffer[size++] = '"';
+        this.size = size;
+    }
+
+    private static int writeUnicodeEscape(byte[] buffer, int size, char c) {
+        buffer[size++] = 'u';
+        buffer[size++] = HEX[(c >> 12) & 0xF];
+        buffer[size++] = HEX[(c >> 8) & 0xF];
+        buffer[size++] = HEX[(c >> 4) & 0xF];
+        buffer[size++] = HEX[c & 0xF];
+        return size;
+    }
+
+    private void writeAscii(String string) {
+        ensureCapacity(string.length());
+        for (int i = 0; i < string.length(); i++) {
+            buffer[size++] = (byte) string.charAt(i);
+        }
+    }
+
+    private void writeByte(char c) {
+        ensureCapacity(1);
+        buffer[size++] = (byte) c;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (size + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package io.github.mattidragon.jsonpatcher.mixin;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.llamalad7.mixinextras.injector.wrapoperation.Operation;
+import com.llamalad7.mixinextras.injector.wrapoperation.WrapOperation;
+import com.llamalad7.mixinextras.sugar.Local;
+import io.github.mattidragon.jsonpatcher.patch.PatchedInputSupplier;
+import net.minecraft.resource.JsonDataLoader;
+import net.minecraft.resource.Resource;
+import net.minecraft.util.Identifier;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+
+import java.io.Reader;
+import java.util.Map;
+
+@Mixin(JsonDataLoader.class)
+public class JsonDataLoaderMixin {
+    // Patched files are already trees, so hand them over directly instead of serializing and parsing them again
+    @WrapOperation(method = "load", at = @At(value = "INVOKE", target = "Lnet/minecraft/util/JsonHelper;deserialize(Lcom/google/gson/Gson;Ljava/io/Reader;Ljava/lang/Class;)Ljava/lang/Object;"))
+    private static Object usePatchedTree(Gson gson, Reader reader, Class<?> type, Operation<Object> original, @Local Map.Entry<Identifier, Resource> entry) {
+        if (type == JsonElement.class && ((ResourceAccessor) entry.getValue()).getInputSupplier() instanceof PatchedInputSupplier supplier) {
+            var json = supplier.getPatchedJson();
+            if (json != null) return json;
+        }
+        return original.call(gson, reader, type);
+    }
+}
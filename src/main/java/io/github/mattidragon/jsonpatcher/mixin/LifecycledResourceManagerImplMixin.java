@@ -1,11 +1,16 @@
 package io.github.mattidragon.jsonpatcher.mixin;
 
 import com.llamalad7.mixinextras.injector.ModifyReturnValue;
+import io.github.mattidragon.jsonpatcher.config.Config;
 import io.github.mattidragon.jsonpatcher.metapatch.MetapatchResourcePack;
 import io.github.mattidragon.jsonpatcher.metapatch.MetapatchSingleResourceManager;
 import io.github.mattidragon.jsonpatcher.misc.MetaPatchPackAccess;
+import io.github.mattidragon.jsonpatcher.misc.PatchStorageAccess;
+import io.github.mattidragon.jsonpatcher.patch.PatchStorage;
+import io.github.mattidragon.jsonpatcher.patch.PatchedInputSupplier;
 import net.minecraft.resource.*;
 import net.minecraft.util.Identifier;
+import org.jetbrains.annotations.Nullable;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.Unique;
 import org.spongepowered.asm.mixin.injection.At;
@@ -17,9 +22,11 @@ import java.util.*;
 import java.util.function.Predicate;
 
 @Mixin(LifecycledResourceManagerImpl.class)
-public class LifecycledResourceManagerImplMixin implements MetaPatchPackAccess {
+public class LifecycledResourceManagerImplMixin implements MetaPatchPackAccess, PatchStorageAccess {
     @Unique
     private MetapatchResourcePack jsonpatcher$metaPatchPack;
+    @Unique
+    private @Nullable PatchStorage jsonpatcher$patchStorage;
 
     @Inject(method = "<init>", at = @At(value = "INVOKE", target = "Ljava/lang/Object;<init>()V", shift = At.Shift.AFTER, remap = false))
     private void init(ResourceType type, List<ResourcePack> packs, CallbackInfo ci) {
@@ -28,34 +35,79 @@ public class LifecycledResourceManagerImplMixin implements MetaPatchPackAccess {
 
     @ModifyReturnValue(method = "getAllNamespaces", at = @At("RETURN"))
     private Set<String> patchNamespaceSet(Set<String> value) {
+        var namespaces = jsonpatcher$metaPatchPack.getNamespaces(jsonpatcher$metaPatchPack.type);
+        if (value.containsAll(namespaces)) return value;
         var set = new HashSet<>(value);
-        set.addAll(jsonpatcher$metaPatchPack.getNamespaces(jsonpatcher$metaPatchPack.type));
+        set.addAll(namespaces);
         return set;
     }
 
     @SuppressWarnings("InvalidInjectorMethodSignature") // McDev can't find the variable for some reason
     @ModifyVariable(method = {"getResource", "getAllResources"}, at = @At("STORE"))
     private ResourceManager wrapManagerForHack(ResourceManager manager, Identifier id) {
+        // The hack only changes anything for files the metapatches add or delete
+        if (!jsonpatcher$metaPatchPack.affects(id)) return manager;
         return new MetapatchSingleResourceManager(id, manager, jsonpatcher$metaPatchPack);
     }
 
     @ModifyVariable(method = "findResources", at = @At("TAIL"))
     private Map<Identifier, Resource> injectResourcesIntoFind(Map<Identifier, Resource> map, String startingPath, Predicate<Identifier> allowedPathPredicate) {
-        map.putAll(jsonpatcher$metaPatchPack.findResources(startingPath, allowedPathPredicate));
-        jsonpatcher$metaPatchPack.getDeletedFiles().forEach(map::remove);
+        if (!jsonpatcher$metaPatchPack.isEmpty()) {
+            map.putAll(jsonpatcher$metaPatchPack.findResources(startingPath, allowedPathPredicate));
+            jsonpatcher$removeDeleted(map);
+        }
+        if (Config.MANAGER.get().prefetchPatchedFiles()) {
+            map.values().forEach(LifecycledResourceManagerImplMixin::jsonpatcher$prefetch);
+        }
         return map;
     }
 
     @ModifyVariable(method = "findAllResources", at = @At("TAIL"))
     private Map<Identifier, List<Resource>> injectResourcesIntoFindAll(Map<Identifier, List<Resource>> map, String startingPath, Predicate<Identifier> allowedPathPredicate) {
-        jsonpatcher$metaPatchPack.findResources(startingPath, allowedPathPredicate)
-                .forEach((id, resource) -> map.computeIfAbsent(id, i -> new ArrayList<>()).add(resource));
-        jsonpatcher$metaPatchPack.getDeletedFiles().forEach(map::remove);
+        if (!jsonpatcher$metaPatchPack.isEmpty()) {
+            jsonpatcher$metaPatchPack.findResources(startingPath, allowedPathPredicate)
+                    .forEach((id, resource) -> map.computeIfAbsent(id, i -> new ArrayList<>()).add(resource));
+            jsonpatcher$removeDeleted(map);
+        }
+        if (Config.MANAGER.get().prefetchPatchedFiles()) {
+            map.values().forEach(resources -> resources.forEach(LifecycledResourceManagerImplMixin::jsonpatcher$prefetch));
+        }
         return map;
     }
 
+    // Walk whichever is smaller, as both the found files and the deleted files can be numerous
+    @Unique
+    private void jsonpatcher$removeDeleted(Map<Identifier, ?> map) {
+        var deletedFiles = jsonpatcher$metaPatchPack.getDeletedFiles();
+        if (deletedFiles.isEmpty()) return;
+        if (deletedFiles.size() < map.size()) {
+            deletedFiles.forEach(map::remove);
+        } else {
+            map.keySet().removeIf(deletedFiles::contains);
+        }
+    }
+
+    // Reloaders usually read every resource they find one by one, so start patching all of them in parallel right away.
+    // Callers check the config first, so that nothing is walked when prefetching is disabled.
+    @Unique
+    private static void jsonpatcher$prefetch(Resource resource) {
+        if (((ResourceAccessor) resource).getInputSupplier() instanceof PatchedInputSupplier supplier) {
+            supplier.prefetch();
+        }
+    }
+
     @Override
     public MetapatchResourcePack jsonpatcher$getMetaPatchPack() {
         return jsonpatcher$metaPatchPack;
     }
+
+    @Override
+    public @Nullable PatchStorage jsonpatcher$getPatchStorage() {
+        return jsonpatcher$patchStorage;
+    }
+
+    @Override
+    public void jsonpatcher$setPatchStorage(@Nullable PatchStorage storage) {
+        jsonpatcher$patchStorage = storage;
+    }
 }
@@ -35,7 +35,11 @@ public class SaveLoadingMixin {
                                             Executor prepareExecutor,
                                             Executor applyExecutor,
                                             CallbackInfoReturnable<CompletableFuture<R>> cir) {
+        var context = PatchingContext.get();
         PatchingContext.remove();
+        // The datapacks are loaded from the same manager right after, reusing the patches
+        context.keepPatchesForNextReload();
+        context.finish();
     }
 
     @Inject(method = "load", at = @At(value = "INVOKE", target = "Lnet/minecraft/server/DataPackContents;reload(Lnet/minecraft/resource/ResourceManager;Lnet/minecraft/registry/DynamicRegistryManager$Immutable;Lnet/minecraft/resource/featuretoggle/FeatureSet;Lnet/minecraft/server/command/CommandManager$RegistrationEnvironment;ILjava/util/concurrent/Executor;Ljava/util/concurrent/Executor;)Ljava/util/concurrent/CompletableFuture;"))
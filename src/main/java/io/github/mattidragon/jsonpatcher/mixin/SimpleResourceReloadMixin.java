@@ -1,6 +1,7 @@
 package io.github.mattidragon.jsonpatcher.mixin;
 
 import com.llamalad7.mixinextras.sugar.Local;
+import com.llamalad7.mixinextras.sugar.Share;
 import com.llamalad7.mixinextras.sugar.ref.LocalRef;
 import io.github.mattidragon.jsonpatcher.misc.ReloadDescription;
 import io.github.mattidragon.jsonpatcher.patch.PatchingContext;
@@ -31,8 +32,10 @@ public class SimpleResourceReloadMixin<S> {
                                       boolean profiled,
                                       CallbackInfoReturnable<ResourceReload> cir,
                                       @Local(argsOnly = true, ordinal = 0) LocalRef<Executor> prepareExecutor,
-                                      @Local(argsOnly = true, ordinal = 1) LocalRef<Executor> applyExecutor) {
+                                      @Local(argsOnly = true, ordinal = 1) LocalRef<Executor> applyExecutor,
+                                      @Share("context") LocalRef<PatchingContext> sharedContext) {
         var context = new PatchingContext(ReloadDescription.pop());
+        sharedContext.set(context);
 
         // Setup context for constructor because some reloaders get resources on the reload thread
         PatchingContext.set(context);
@@ -55,6 +58,19 @@ public class SimpleResourceReloadMixin<S> {
         }));
     }
 
+    @Inject(method = "start", at = @At("RETURN"))
+    private static void finishPatching(ResourceManager manager,
+                                       List<ResourceReloader> reloaders,
+                                       Executor prepareExecutor,
+                                       Executor applyExecutor,
+                                       CompletableFuture<Unit> initialStage,
+                                       boolean profiled,
+                                       CallbackInfoReturnable<ResourceReload> cir,
+                                       @Share("context") LocalRef<PatchingContext> sharedContext) {
+        var context = sharedContext.get();
+        cir.getReturnValue().whenComplete().whenComplete((result, error) -> context.finish());
+    }
+
     @Inject(method = "<init>", at = @At("TAIL"))
     private void removeContextFromThread(Executor prepareExecutor1,
                                          Executor applyExecutor1,
@@ -0,0 +1,103 @@
+package io.github.mattidragon.jsonpatcher.patch;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import io.github.mattidragon.jsonpatcher.JsonPatcher;
+import io.github.mattidragon.jsonpatcher.metapatch.MetapatchLibrary;
+import net.minecraft.resource.ResourceManager;
+import net.minecraft.resource.ResourceType;
+import net.minecraft.util.Identifier;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers the results of meta patches across reloads. A meta patch only depends on its code, the code of the libraries
+ * it imports and the files it reads, so if none of them changed, running it again would give the same result.
+ */
+class MetapatchCache {
+    private static final Map<ResourceType, Map<Identifier, Entry>> ENTRIES = new EnumMap<>(ResourceType.class);
+
+    private MetapatchCache() {
+    }
+
+    /**
+     * Gets the result of the previous run of a meta patch, if it's still valid.
+     */
+    @Nullable
+    static MetapatchLibrary.Result get(ResourceType type, Patch patch, PatchStorage storage, ResourceManager manager) {
+        var entry = getEntries(type).get(patch.id());
+        if (entry == null || !entry.codeHash.equals(hashCode(patch, storage))) return null;
+
+        for (var read : entry.result.reads().entrySet()) {
+            try {
+                if (!Objects.equals(read.getValue(), hashFile(manager, read.getKey()))) {
+                    JsonPatcher.RELOAD_LOGGER.debug("Rerunning meta patch {} as {} changed", patch.id(), read.getKey());
+                    return null;
+                }
+            } catch (IOException e) {
+                // Let the patch report the error
+                return null;
+            }
+        }
+        return entry.result;
+    }
+
+    /**
+     * Remembers the result of a successful run of a meta patch.
+     */
+    static void put(ResourceType type, Patch patch, PatchStorage storage, MetapatchLibrary.Result result) {
+        getEntries(type).put(patch.id(), new Entry(hashCode(patch, storage), result));
+    }
+
+    /**
+     * Forgets the result of a meta patch, for when it fails or is removed.
+     */
+    static void remove(ResourceType type, Identifier id) {
+        getEntries(type).remove(id);
+    }
+
+    /**
+     * Forgets the results of meta patches that no longer exist.
+     */
+    static void retain(ResourceType type, Collection<Patch> metaPatches) {
+        var ids = new HashSet<Identifier>();
+        metaPatches.forEach(patch -> ids.add(patch.id()));
+        getEntries(type).keySet().retainAll(ids);
+    }
+
+    private static synchronized Map<Identifier, Entry> getEntries(ResourceType type) {
+        return ENTRIES.computeIfAbsent(type, t -> new ConcurrentHashMap<>());
+    }
+
+    private static HashCode hashCode(Patch patch, PatchStorage storage) {
+        // Sort libraries to get the same hash regardless of import order
+        var libraries = new TreeMap<Identifier, Patch>();
+        storage.collectLibraries(patch, libraries);
+
+        Hasher hasher = Hashing.sha256().newHasher();
+        hasher.putBytes(patch.hash().asBytes());
+        libraries.forEach((id, library) -> {
+            hasher.putUnencodedChars(id.toString());
+            hasher.putBytes(library.hash().asBytes());
+        });
+        return hasher.hash();
+    }
+
+    @Nullable
+    private static HashCode hashFile(ResourceManager manager, Identifier id) throws IOException {
+        try (var __ = PatchingContext.disablePatching()) {
+            var resource = manager.getResource(id);
+            if (resource.isEmpty()) return null;
+            try (var stream = resource.get().getInputStream()) {
+                return Hashing.sha256().hashBytes(stream.readAllBytes());
+            }
+        }
+    }
+
+    private record Entry(HashCode codeHash, MetapatchLibrary.Result result) {
+    }
+}
@@ -1,9 +1,16 @@
 package io.github.mattidragon.jsonpatcher.patch;
 
+import com.google.common.hash.HashCode;
 import io.github.mattidragon.jsonpatcher.lang.runtime.Program;
 import net.minecraft.util.Identifier;
 
 import java.util.List;
+import java.util.Set;
 
-public record Patch(Program program, Identifier id, List<PatchTarget> target, double priority, boolean isMeta) {
+/**
+ * A loaded patch.
+ * @param hash A hash of the patch source, used to detect changes
+ * @param imports The libraries the patch imports directly
+ */
+public record Patch(Program program, Identifier id, List<PatchTarget> target, double priority, boolean isMeta, HashCode hash, Set<Identifier> imports) {
 }
@@ -1,6 +1,9 @@
 package io.github.mattidragon.jsonpatcher.patch;
 
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
 import io.github.mattidragon.jsonpatcher.JsonPatcher;
+import io.github.mattidragon.jsonpatcher.misc.MetaPatchPackAccess;
 import io.github.mattidragon.jsonpatcher.misc.ValueOps;
 import io.github.mattidragon.jsonpatcher.config.Config;
 import io.github.mattidragon.jsonpatcher.lang.parse.Lexer;
@@ -8,53 +11,114 @@ import io.github.mattidragon.jsonpatcher.lang.parse.Parser;
 import net.minecraft.resource.Resource;
 import net.minecraft.resource.ResourceFinder;
 import net.minecraft.resource.ResourceManager;
+import net.minecraft.resource.ResourceType;
 import net.minecraft.util.Identifier;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 public class PatchLoader {
     private static final ResourceFinder finder = new ResourceFinder("jsonpatch", ".jsonpatch");
+    private static final Pattern IMPORT_PATTERN = Pattern.compile("\\bimport\\s+(?:\"([^\"]*)\"|'([^']*)')");
+    // Parsed patches from previous reloads of each resource type. Programs are immutable, so unchanged patches can be reused as is.
+    // Client resources and server data are kept apart, as they may contain different patches with the same id.
+    private static final Map<ResourceType, Map<Identifier, ParsedPatch>> PARSE_CACHES = new ConcurrentHashMap<>();
+    // The storage of the previous reload of each resource type, for reusing work on the next reload
+    private static final Map<ResourceType, PatchStorage> PREVIOUS_STORAGES = new ConcurrentHashMap<>();
 
     public static PatchStorage load(Executor executor, ResourceManager manager) {
+        var type = getResourceType(manager);
+        var parseCache = getParseCache(type);
         var files = finder.findResources(manager);
         var futures = new ArrayList<CompletableFuture<Void>>();
         var patches = Collections.synchronizedList(new ArrayList<Patch>());
         var errorCount = new AtomicInteger(0);
+        var reuseCount = new AtomicInteger(0);
         for (var entry : files.entrySet()) {
             futures.add(CompletableFuture.runAsync(() -> {
-                var patch = loadPatch(entry, errorCount);
+                var patch = loadPatch(entry, parseCache, errorCount, reuseCount);
                 if (patch != null) {
                     patches.add(patch);
                 }
             }, executor));
         }
         CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).join();
+        JsonPatcher.RELOAD_LOGGER.debug("Reused {} unchanged patch(es) from previous reloads", reuseCount.get());
+        // Forget patches that were removed, so that they don't stay in memory for the rest of the game
+        var loadedIds = files.keySet().stream().map(finder::toResourceId).collect(Collectors.toSet());
+        parseCache.keySet().retainAll(loadedIds);
         if (errorCount.get() > 0) {
             JsonPatcher.MAIN_LOGGER.error("Failed to load {} patch(es). See logs/jsonpatch.log for details", errorCount.get());
             if (Config.MANAGER.get().abortOnFailure()) {
                 throw new IllegalStateException("Failed to load %s patch(es). See logs/jsonpatch.log for details".formatted(errorCount.get()));
             }
         }
-        return new PatchStorage(patches);
+
+        if (type == null) return new PatchStorage(patches);
+        var storage = new PatchStorage(patches, PREVIOUS_STORAGES.get(type));
+        PREVIOUS_STORAGES.put(type, storage);
+        return storage;
+    }
+
+    /**
+     * Loads a single patch file, for reloading it while {@link PatchWatcher watching} patches.
+     * @return The patch, or null if it's disabled
+     * @throws PatchingException If loading failed. The details are logged.
+     */
+    @Nullable
+    static Patch loadSingle(ResourceType type, Identifier fileId, Resource resource) {
+        var errorCount = new AtomicInteger(0);
+        var patch = loadPatch(Map.entry(fileId, resource), getParseCache(type), errorCount, new AtomicInteger(0));
+        if (errorCount.get() > 0) {
+            throw new PatchingException("Failed to load patch %s. See logs/jsonpatch.log for details".formatted(toPatchId(fileId)));
+        }
+        return patch;
+    }
+
+    static Identifier toPatchId(Identifier fileId) {
+        return finder.toResourceId(fileId);
+    }
+
+    @Nullable
+    static ResourceType getResourceType(ResourceManager manager) {
+        return manager instanceof MetaPatchPackAccess access ? access.jsonpatcher$getMetaPatchPack().type : null;
+    }
+
+    /**
+     * Gets the cache of parsed patches for a resource type. Managers of unknown type get a new cache every time, as
+     * there is no telling which patches they share with others.
+     */
+    private static Map<Identifier, ParsedPatch> getParseCache(@Nullable ResourceType type) {
+        if (type == null) return new ConcurrentHashMap<>();
+        return PARSE_CACHES.computeIfAbsent(type, key -> new ConcurrentHashMap<>());
     }
 
     @Nullable
-    private static Patch loadPatch(Map.Entry<Identifier, Resource> entry, AtomicInteger errorCount) {
+    private static Patch loadPatch(Map.Entry<Identifier, Resource> entry, Map<Identifier, ParsedPatch> parseCache, AtomicInteger errorCount, AtomicInteger reuseCount) {
         var id = finder.toResourceId(entry.getKey());
         var resource = entry.getValue();
 
         try {
-            var code = new String(resource.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+            byte[] bytes;
+            try (var stream = resource.getInputStream()) {
+                bytes = stream.readAllBytes();
+            }
+            var hash = Hashing.sha256().hashBytes(bytes);
+            var cached = parseCache.get(id);
+            if (cached != null && cached.hash().equals(hash)) {
+                reuseCount.incrementAndGet();
+                return cached.patch();
+            }
+
+            var code = new String(bytes, StandardCharsets.UTF_8);
             var lexResult = Lexer.lex(code, id.toString());
 
             var parseResult = Parser.parse(lexResult.tokens());
@@ -63,7 +127,10 @@ public class PatchLoader {
                 logParseError(entry, fail, id);
                 errorCount.incrementAndGet();
             } else {
-                return validateAndBuild(id, (Parser.Result.Success) parseResult);
+                var patch = validateAndBuild(id, (Parser.Result.Success) parseResult, hash, findImports(code));
+                // Only valid patches are cached, broken ones should keep reporting their errors
+                parseCache.put(id, new ParsedPatch(hash, patch));
+                return patch;
             }
         } catch (IOException | Lexer.LexException | IllegalStateException e) {
             JsonPatcher.RELOAD_LOGGER.error("Failed to load patch {} from {}", id, entry.getKey(), e);
@@ -88,8 +155,23 @@ public class PatchLoader {
         }
     }
 
+    /**
+     * Finds the libraries imported by a patch. This is a simple text search, so it may find extra imports in comments,
+     * but never misses any as libraries can only be imported by a constant name.
+     */
+    private static Set<Identifier> findImports(String code) {
+        var imports = new HashSet<Identifier>();
+        var matcher = IMPORT_PATTERN.matcher(code);
+        while (matcher.find()) {
+            var name = matcher.group(1) != null ? matcher.group(1) : matcher.group(2);
+            var libId = Identifier.tryParse(name);
+            if (libId != null) imports.add(libId);
+        }
+        return Set.copyOf(imports);
+    }
+
     @Nullable
-    private static Patch validateAndBuild(Identifier id, Parser.Result.Success result) {
+    private static Patch validateAndBuild(Identifier id, Parser.Result.Success result, HashCode hash, Set<Identifier> imports) {
         var meta = result.metadata();
         if (meta.has("enabled") && !meta.getBoolean("enabled")) {
             return null;
@@ -116,6 +198,13 @@ public class PatchLoader {
             priority = 0;
         }
 
-        return new Patch(result.program(), id, target, priority, meta.has("metapatch"));
+        return new Patch(result.program(), id, target, priority, meta.has("metapatch"), hash, imports);
+    }
+
+    /**
+     * A successfully parsed patch file.
+     * @param patch The patch, or null if the patch is disabled
+     */
+    private record ParsedPatch(HashCode hash, @Nullable Patch patch) {
     }
 }
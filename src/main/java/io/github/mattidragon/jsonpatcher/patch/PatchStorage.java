@@ -1,113 +1,203 @@
 package io.github.mattidragon.jsonpatcher.patch;
 
-import com.google.common.collect.LinkedHashMultimap;
-import com.google.common.collect.Multimap;
-import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.github.mattidragon.jsonpatcher.JsonPatcher;
+import io.github.mattidragon.jsonpatcher.config.Config;
 import io.github.mattidragon.jsonpatcher.lang.parse.SourceSpan;
 import io.github.mattidragon.jsonpatcher.lang.runtime.EvaluationContext;
 import io.github.mattidragon.jsonpatcher.lang.runtime.EvaluationException;
 import io.github.mattidragon.jsonpatcher.lang.runtime.Value;
+import io.github.mattidragon.jsonpatcher.misc.ValueCopier;
 import net.minecraft.util.Identifier;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.*;
 
 public class PatchStorage implements EvaluationContext.LibraryLocator {
-    private static final ThreadLocal<ExecutorService> LIBRARY_APPLICATOR = ThreadLocal.withInitial(() -> Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat("JsonPatch Library Builder (%s)").build()));
-
-    private final Multimap<String, Patch> namespacePatches = LinkedHashMultimap.create();
-    private final Multimap<String, Patch> pathPatches = LinkedHashMultimap.create();
-
-    private final Multimap<String, Patch> namespaceFilteredPatches = LinkedHashMultimap.create();
-
-    private final Multimap<Identifier, Patch> directIdPatches = LinkedHashMultimap.create();
-    private final List<Patch> nonTrivialPatches = new ArrayList<>();
-    private final List<Patch> alwaysActivePatches = new ArrayList<>();
-
     private final Map<Identifier, Patch> libraries = new HashMap<>();
     private final List<Patch> metaPatches = new ArrayList<>();
+    private final List<Patch> patches;
+    private final TargetIndex index;
+    private final Map<Identifier, List<Patch>> patchLists;
+    private final List<Identifier> changedFiles;
+    // Libraries are evaluated once per reload, importers get copies of the result.
+    private final Map<Identifier, CompletableFuture<Value.ObjectValue>> libraryResults = new ConcurrentHashMap<>();
+    // Libraries that may import themselves. These aren't cached, as waiting on their results could deadlock
+    private final Set<Identifier> cyclicLibraries = new HashSet<>();
+    private final ThreadLocal<Deque<Identifier>> loadingLibraries = ThreadLocal.withInitial(ArrayDeque::new);
 
-    /*
-    Group 1: namespaced patches
-    Group 2: non-trivial patches
-    Group 3: direct id patches
-    Group 4: path only patches
-    Group 5: always active patches
-    Group 6: namespace filtered patches
-
-    |             |666222361425|
-    +-------------+------------+
-    |pathStartEnd | X  X  X  X |
-    |path         |X  X  X  X  |
-    |namespace    |XXX   XXX   |
-    |regex        |xxxxxx      |
-    */
     public PatchStorage(List<Patch> patches) {
+        this(patches, null);
+    }
+
+    /**
+     * Creates a storage, reusing work from the storage of the previous reload where possible.
+     * Unchanged patches are the same instances as in the previous reload, as they aren't parsed again by {@link PatchLoader}.
+     * If none changed, the target index and the patch lists of the previous storage are reused as is.
+     * Otherwise the changes are logged along with the files they affect.
+     */
+    public PatchStorage(List<Patch> patches, @Nullable PatchStorage previous) {
+        this.patches = List.copyOf(patches);
         for (var patch : patches) {
             if (patch.isMeta()) metaPatches.add(patch);
+            libraries.put(patch.id(), patch);
+        }
 
-            patch.target().forEach(target -> {
-                var simplePath = target.path().map(PatchTarget.Path::path).flatMap(either -> either.left());
-                var splitPath = target.path().map(PatchTarget.Path::path).flatMap(either -> either.right());
-
-                // All regex patches and patches with split paths need to be checked at runtime. We can only bucket them by namespace here.
-                if (target.regex().isPresent() || splitPath.isPresent()) {
-                    if (target.namespace().isPresent()) {
-                        namespaceFilteredPatches.put(target.namespace().get(), patch);
-                    } else {
-                        nonTrivialPatches.add(patch);
-                    }
-                    return;
-                }
+        if (previous != null && isUnchanged(previous)) {
+            JsonPatcher.RELOAD_LOGGER.debug("No patches changed since the previous reload, reusing target index");
+            index = previous.index;
+            patchLists = previous.patchLists;
+            changedFiles = List.of();
+        } else {
+            index = new TargetIndex(patches);
+            patchLists = new ConcurrentHashMap<>();
+            changedFiles = previous == null ? List.of() : findChangedFiles(previous);
+            if (previous != null) logChanges(previous);
+        }
 
-                // Full id patches will be somewhat command and thus receive their own bucket
-                if (target.namespace().isPresent() && simplePath.isPresent()) {
-                    var id = Identifier.tryParse(target.namespace().get() + ":" + simplePath.get());
-                    if (id == null) return; // Invalid id, can't match anything
+        for (var patch : patches) {
+            var imported = new HashMap<Identifier, Patch>();
+            collectLibraries(patch, imported);
+            if (imported.containsKey(patch.id())) cyclicLibraries.add(patch.id());
+        }
+        if (!cyclicLibraries.isEmpty()) {
+            JsonPatcher.RELOAD_LOGGER.warn("Possible import cycles between libraries {}, they will be reevaluated on every import", cyclicLibraries);
+        }
+    }
 
-                    directIdPatches.put(id, patch);
-                    return;
-                }
+    private boolean isUnchanged(PatchStorage previous) {
+        if (previous.libraries.size() != libraries.size()) return false;
+        for (var patch : patches) {
+            if (previous.libraries.get(patch.id()) != patch) return false;
+        }
+        return true;
+    }
 
-                // Namespace and full path only patches are rare, but lookup is fast, so we can save a little bit of time by putting them in their own bucket
-                if (target.namespace().isPresent()) {
-                    namespacePatches.put(target.namespace().get(), patch);
-                    return;
-                }
-                if (simplePath.isPresent()) {
-                    pathPatches.put(simplePath.get(), patch);
+    private void logChanges(PatchStorage previous) {
+        var added = new ArrayList<Identifier>();
+        var changed = new ArrayList<Identifier>();
+        var removed = new ArrayList<Identifier>();
+        for (var patch : patches) {
+            var previousPatch = previous.libraries.get(patch.id());
+            if (previousPatch == null) {
+                added.add(patch.id());
+            } else if (previousPatch != patch) {
+                changed.add(patch.id());
+            }
+        }
+        for (var id : previous.libraries.keySet()) {
+            if (!libraries.containsKey(id)) removed.add(id);
+        }
+
+        JsonPatcher.RELOAD_LOGGER.info("Patches changed since the previous reload: {} added, {} changed, {} removed, affecting {} known file(s)",
+                added.size(), changed.size(), removed.size(), changedFiles.size());
+        JsonPatcher.RELOAD_LOGGER.debug("Added patches: {}", added);
+        JsonPatcher.RELOAD_LOGGER.debug("Changed patches: {}", changed);
+        JsonPatcher.RELOAD_LOGGER.debug("Removed patches: {}", removed);
+        JsonPatcher.RELOAD_LOGGER.debug("Affected files: {}", changedFiles);
+    }
+
+    private List<Identifier> findChangedFiles(PatchStorage previous) {
+        var changedPatches = new HashSet<Identifier>();
+        for (var patch : patches) {
+            if (previous.libraries.get(patch.id()) != patch) changedPatches.add(patch.id());
+        }
+        for (var id : previous.libraries.keySet()) {
+            if (!libraries.containsKey(id)) changedPatches.add(id);
+        }
+        // Patches that import a changed library behave differently even if they didn't change themselves
+        var affected = new HashMap<Patch, Boolean>();
+
+        // Only files that were looked up in the previous reload are known, new patches may affect others as well.
+        // Looking them up here also fills the patch lists for this reload.
+        var changed = new ArrayList<Identifier>();
+        previous.patchLists.forEach((id, previousList) -> {
+            var list = getPatches(id);
+            if (list.size() != previousList.size()) {
+                changed.add(id);
+                return;
+            }
+            for (int i = 0; i < list.size(); i++) {
+                var patch = list.get(i);
+                if (patch != previousList.get(i) || affected.computeIfAbsent(patch, p -> importsAny(p, changedPatches))) {
+                    changed.add(id);
                     return;
                 }
+            }
+        });
+        return changed;
+    }
 
-                alwaysActivePatches.add(patch);
-            });
-            libraries.put(patch.id(), patch);
+    /**
+     * Checks whether a patch imports any of the given libraries, directly or indirectly.
+     */
+    private boolean importsAny(Patch patch, Set<Identifier> libraryIds) {
+        var imported = new HashMap<Identifier, Patch>();
+        collectLibraries(patch, imported);
+        // Removed libraries aren't collected, so check the imports themselves
+        if (patch.imports().stream().anyMatch(libraryIds::contains)) return true;
+        for (var library : imported.values()) {
+            if (library.imports().stream().anyMatch(libraryIds::contains)) return true;
         }
+        return false;
+    }
+
+    /**
+     * Gets the known files whose patches changed since the previous storage.
+     * Empty if there was no previous storage or nothing changed.
+     */
+    public List<Identifier> getChangedFiles() {
+        return changedFiles;
+    }
+
+    /**
+     * Checks whether the storage may have skipped looking up files that a patch targets.
+     * Files in namespaces no target mentions are rejected without being remembered, see {@link #getPatches}.
+     */
+    public boolean mayHaveSkippedFiles(Patch patch) {
+        return patch.target().stream().anyMatch(target -> target.namespace().map(namespace -> !index.mayMatchNamespace(namespace)).orElse(index.filtersNamespaces()));
+    }
+
+    public List<Patch> getAllPatches() {
+        return patches;
     }
 
     public boolean hasPatches(Identifier id) {
-        if (!alwaysActivePatches.isEmpty()) return true;
-        if (namespacePatches.containsKey(id.getNamespace())) return true;
-        if (pathPatches.containsKey(id.getPath())) return true;
-        if (directIdPatches.containsKey(id)) return true;
-        if (namespaceFilteredPatches.get(id.getNamespace()).stream().anyMatch(patch -> patch.target().stream().anyMatch(target -> target.test(id)))) return true;
-        return nonTrivialPatches.stream().anyMatch(patch -> patch.target().stream().anyMatch(target -> target.test(id)));
-    }
-
-    public Collection<Patch> getPatches(Identifier id) {
-        // Use a set to avoid duplicates from patches with multiple targets. Also allows us to not store which target put a patch in a bucket
-        var patchSet = new HashSet<>(alwaysActivePatches);
-        namespacePatches.entries().stream().filter(entry -> entry.getKey().equals(id.getNamespace())).map(Map.Entry::getValue).forEach(patchSet::add);
-        pathPatches.entries().stream().filter(entry -> entry.getKey().equals(id.getPath())).map(Map.Entry::getValue).forEach(patchSet::add);
-        directIdPatches.entries().stream().filter(entry -> entry.getKey().equals(id)).map(Map.Entry::getValue).forEach(patchSet::add);
-        nonTrivialPatches.stream().filter(patch -> patch.target().stream().anyMatch(target -> target.test(id))).forEach(patchSet::add);
+        return !getPatches(id).isEmpty();
+    }
+
+    /**
+     * Gets the patches that apply to a file, sorted by priority. Results are computed once per id and then reused.
+     */
+    public List<Patch> getPatches(Identifier id) {
+        if (!index.mayMatchNamespace(id.getNamespace())) return List.of();
+        return patchLists.computeIfAbsent(id, this::findPatches);
+    }
+
+    private List<Patch> findPatches(Identifier id) {
+        // Use a set to avoid duplicates from patches with multiple targets
+        var patchSet = new HashSet<Patch>();
+        index.forEachMatch(id, patchSet::add);
+        // Most files have no patches, share one list for all of them
+        if (patchSet.isEmpty()) return List.of();
 
         // Sort patches
         var patchList = new ArrayList<>(patchSet);
         patchList.sort(Comparator.comparingDouble(Patch::priority));
 
-        return patchList;
+        return List.copyOf(patchList);
+    }
+
+    /**
+     * Collects all libraries imported by a patch, directly or indirectly.
+     */
+    public void collectLibraries(Patch patch, Map<Identifier, Patch> libraries) {
+        for (var libId : patch.imports()) {
+            var library = this.libraries.get(libId);
+            if (library != null && libraries.putIfAbsent(libId, library) == null) {
+                collectLibraries(library, libraries);
+            }
+        }
     }
 
     public Collection<Patch> getMetaPatches() {
@@ -120,6 +210,7 @@ public class PatchStorage implements EvaluationContext.LibraryLocator {
 
     @Override
     public void loadLibrary(String libraryName, Value.ObjectValue libraryObject, SourceSpan importPos) {
+        PatchWatchdog.checkDeadline();
         var libId = Identifier.tryParse(libraryName);
         if (libId == null) {
             throw new EvaluationException("Invalid library name '%s'".formatted(libraryName), importPos);
@@ -130,11 +221,93 @@ public class PatchStorage implements EvaluationContext.LibraryLocator {
             throw new EvaluationException("Cannot locate library '%s'".formatted(libraryName), importPos);
         }
 
-        Patcher.runPatch(userLib, LIBRARY_APPLICATOR.get(), e -> {
-            if (e instanceof EvaluationException evaluationException) {
-                throw new EvaluationException("Failed to load library %s".formatted(libId), importPos, evaluationException);
+        var loading = loadingLibraries.get();
+        if (loading.contains(libId)) {
+            throw new EvaluationException("Import cycle while loading library %s: %s".formatted(libId, loading), importPos);
+        }
+
+        loading.push(libId);
+        try {
+            Value.ObjectValue result;
+            try {
+                result = cyclicLibraries.contains(libId) ? evaluateLibrary(userLib) : importLibrary(userLib);
+            } catch (EvaluationException e) {
+                throw new EvaluationException("Failed to load library %s".formatted(libId), importPos, e);
+            } catch (RuntimeException e) {
+                throw new RuntimeException("Failed to load library %s".formatted(libId), e);
+            }
+            libraryObject.value().putAll(result.value());
+        } finally {
+            loading.pop();
+        }
+    }
+
+    /**
+     * Drops the library results of the current reload. The storage may be reused by later reloads, which evaluate them again.
+     */
+    public void releaseLibraryResults() {
+        libraryResults.clear();
+    }
+
+    /**
+     * Gets the exports of a library for a single import. Libraries are evaluated once per reload and each import gets its
+     * own copy of the exported containers, so importers can't see each others changes to them.
+     * Exported functions are shared between all importers. They run in the scope of the single evaluation, so like modules
+     * in other languages, any state they keep in library variables is shared too.
+     */
+    private Value.ObjectValue importLibrary(Patch library) {
+        while (true) {
+            var future = new CompletableFuture<Value.ObjectValue>();
+            var existing = libraryResults.putIfAbsent(library.id(), future);
+            if (existing == null) {
+                try {
+                    // Cache a copy that nothing else references, as functions may still change the exports through the root of the library
+                    future.complete(copyExports(evaluateLibrary(library)));
+                } catch (RuntimeException e) {
+                    future.completeExceptionally(e);
+                } catch (Error e) {
+                    // Most likely the importing patch was stopped. That's no fault of the library, so let the next import retry.
+                    libraryResults.remove(library.id(), future);
+                    future.cancel(false);
+                    throw e;
+                }
+                existing = future;
             }
-            throw new RuntimeException("Failed to load library %s".formatted(libId), e);
-        }, this, libraryObject, Patcher.Settings.builder().library().build());
+
+            Value.ObjectValue result;
+            try {
+                result = existing.get(Config.MANAGER.get().patchTimeoutMillis(), TimeUnit.MILLISECONDS);
+            } catch (CancellationException e) {
+                // The evaluation was abandoned, try again
+                continue;
+            } catch (ExecutionException e) {
+                // Failures are rethrown for each import, so that they are reported at the import
+                if (e.getCause() instanceof RuntimeException cause) throw cause;
+                throw new RuntimeException(e.getCause());
+            } catch (TimeoutException e) {
+                throw new PatchingException("Timeout while waiting for library %s".formatted(library.id()), e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new PatchingException("Interrupted while waiting for library %s".formatted(library.id()), e);
+            }
+            return copyExports(result);
+        }
+    }
+
+    private static Value.ObjectValue copyExports(Value.ObjectValue exports) {
+        var copy = new Value.ObjectValue();
+        var copies = new IdentityHashMap<Value, Value>();
+        for (var entry : exports.value().entrySet()) {
+            copy.value().put(entry.getKey(), ValueCopier.copyGraph(entry.getValue(), copies));
+        }
+        return copy;
+    }
+
+    private Value.ObjectValue evaluateLibrary(Patch library) {
+        var result = new Value.ObjectValue();
+        Patcher.runPatch(library, e -> {
+            throw e;
+        }, this, result, Patcher.Settings.builder().library().build());
+        return result;
     }
 }
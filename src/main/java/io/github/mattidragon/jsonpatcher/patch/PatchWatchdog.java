@@ -0,0 +1,85 @@
+package io.github.mattidragon.jsonpatcher.patch;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.github.mattidragon.jsonpatcher.JsonPatcher;
+
+import java.util.concurrent.*;
+
+/**
+ * Runs patches while enforcing a timeout.
+ * <p>
+ * The interpreter has no instruction budget or cancellation hook, so there is no safe way to stop a running patch.
+ * Patches run on a separate thread while the caller waits for them, and are abandoned if they time out.
+ * Abandoned patches are stopped the next time they call back into the mod, such as when importing a library or printing
+ * debug output, see {@link #checkDeadline()}. Patches that never do keep running until they finish.
+ */
+class PatchWatchdog {
+    private static final ExecutorService EXECUTOR = new ThreadPoolExecutor(0,
+            Integer.MAX_VALUE,
+            5,
+            TimeUnit.SECONDS,
+            new SynchronousQueue<>(),
+            new ThreadFactoryBuilder()
+                    .setNameFormat("JsonPatch Patcher (%s)")
+                    .setDaemon(true)
+                    .build());
+    // The deadline of the patch running on the current thread, in nanoTime, or null if none is running
+    private static final ThreadLocal<Long> DEADLINE = new ThreadLocal<>();
+
+    private PatchWatchdog() {
+    }
+
+    /**
+     * Runs an action, abandoning it if it takes longer than the timeout.
+     * Exceptions thrown by the action are rethrown as is.
+     * @throws TimeoutException If the action timed out
+     */
+    static void run(Runnable action, long timeoutMillis) throws TimeoutException {
+        // Libraries are loaded from within patches. Running them inline keeps them covered by the timeout of the patch.
+        if (DEADLINE.get() != null) {
+            action.run();
+            return;
+        }
+
+        // The timeout starts once the patch starts, so that time spent waiting for a thread doesn't count against it
+        var started = new CompletableFuture<Long>();
+        var future = CompletableFuture.runAsync(() -> {
+            var deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            started.complete(deadline);
+            DEADLINE.set(deadline);
+            try {
+                action.run();
+            } finally {
+                DEADLINE.remove();
+            }
+        }, EXECUTOR);
+        // Don't wait for a start that never comes if the task fails to run at all
+        future.whenComplete((result, error) -> started.complete(System.nanoTime()));
+        try {
+            long deadline = started.get();
+            future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            JsonPatcher.RELOAD_LOGGER.debug("Abandoning timed out patch, it keeps running until it calls back into the mod or finishes");
+            throw e;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) throw cause;
+            if (e.getCause() instanceof Error cause) throw cause;
+            throw new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PatchingException("Interrupted while waiting for patch", e);
+        }
+    }
+
+    /**
+     * Ends the patch running on the current thread if it's past its deadline. Called from hooks the interpreter calls
+     * into, which are the only points where a patch can be stopped safely. Does nothing outside of patches.
+     * @throws PatchingException If the patch timed out
+     */
+    static void checkDeadline() {
+        var deadline = DEADLINE.get();
+        if (deadline != null && System.nanoTime() - deadline > 0) {
+            throw new PatchingException("Patch ran past its timeout");
+        }
+    }
+}
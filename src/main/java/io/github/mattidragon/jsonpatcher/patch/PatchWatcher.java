@@ -0,0 +1,245 @@
+package io.github.mattidragon.jsonpatcher.patch;
+
+import io.github.mattidragon.jsonpatcher.JsonPatcher;
+import io.github.mattidragon.jsonpatcher.config.Config;
+import io.github.mattidragon.jsonpatcher.misc.DumpManager;
+import io.github.mattidragon.jsonpatcher.misc.ReloadDescription;
+import io.github.mattidragon.jsonpatcher.mixin.DirectoryResourcePackAccessor;
+import net.minecraft.resource.ResourceManager;
+import net.minecraft.resource.ResourceType;
+import net.minecraft.util.Identifier;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Watches the patch folders of directory packs during development and reapplies changed patches right away.
+ * Only the files affected by the changed patch are patched again. Reapplied patches update dumps and the log,
+ * the game itself still needs a reload to see the changes.
+ */
+public class PatchWatcher {
+    // Editors often write files in multiple steps, so wait for events to settle before reapplying
+    private static final long DEBOUNCE_MILLIS = 100;
+    private static final Map<ResourceType, PatchWatcher> WATCHERS = new EnumMap<>(ResourceType.class);
+
+    private final ResourceType type;
+    private final ResourceManager manager;
+    private final WatchService watchService;
+    private final Map<WatchKey, WatchedDirectory> directories = new HashMap<>();
+    private volatile ReloadDescription description;
+    private volatile PatchStorage storage;
+
+    private PatchWatcher(ResourceType type, ResourceManager manager, WatchService watchService, ReloadDescription description, PatchStorage storage) {
+        this.type = type;
+        this.manager = manager;
+        this.watchService = watchService;
+        this.description = description;
+        this.storage = storage;
+    }
+
+    /**
+     * Starts watching the patches of a resource manager if enabled in the config.
+     * Replaces the previous watcher for the same resource type, as its resource manager is outdated.
+     */
+    public static synchronized void watch(ResourceManager manager, ReloadDescription description, PatchStorage storage) {
+        var type = PatchLoader.getResourceType(manager);
+        if (type == null) return;
+
+        var existing = WATCHERS.get(type);
+        if (existing != null && existing.manager == manager) {
+            // Same resource manager, but a different reload (dynamic registries and datapacks during startup)
+            existing.description = hotReloadDescription(description);
+            existing.storage = storage;
+            return;
+        }
+        if (existing != null) {
+            existing.close();
+            WATCHERS.remove(type);
+        }
+        if (!Config.MANAGER.get().watchPatches()) return;
+
+        try {
+            var watcher = new PatchWatcher(type, manager, FileSystems.getDefault().newWatchService(), hotReloadDescription(description), storage);
+            manager.streamResourcePacks()
+                    .filter(pack -> pack instanceof DirectoryResourcePackAccessor)
+                    .forEach(pack -> watcher.registerTree(((DirectoryResourcePackAccessor) pack).getRoot().resolve(type.getDirectory())));
+            var directoryCount = watcher.directories.size();
+            if (directoryCount == 0) {
+                watcher.close();
+                return;
+            }
+
+            var thread = new Thread(watcher::run, "JsonPatch Watcher (%s)".formatted(type.getDirectory()));
+            thread.setDaemon(true);
+            thread.start();
+            WATCHERS.put(type, watcher);
+            JsonPatcher.MAIN_LOGGER.info("Watching {} folder(s) for patch changes", directoryCount);
+        } catch (IOException e) {
+            JsonPatcher.MAIN_LOGGER.error("Failed to start watching patches", e);
+        }
+    }
+
+    private static ReloadDescription hotReloadDescription(ReloadDescription description) {
+        // The original error consumer might not be safe to call from the watcher thread. Errors are logged anyway.
+        return new ReloadDescription(description.name(), description.dumpPath(), error -> {});
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                var changed = new LinkedHashSet<Identifier>();
+                handleEvents(watchService.take(), changed);
+                WatchKey key;
+                while ((key = watchService.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                    handleEvents(key, changed);
+                }
+                changed.forEach(this::reapply);
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            // Replaced by a newer watcher
+        }
+    }
+
+    private void handleEvents(WatchKey key, Set<Identifier> changed) {
+        var directory = directories.get(key);
+        if (directory == null) return;
+
+        for (var event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                JsonPatcher.RELOAD_LOGGER.warn("Missed some changes to patches in {}, reload to apply them", directory.path());
+                continue;
+            }
+            var file = directory.path().resolve((Path) event.context());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(file)) {
+                registerTree(directory.typeRoot(), file);
+                continue;
+            }
+
+            var fileId = toFileId(directory.typeRoot(), file);
+            if (fileId != null) changed.add(fileId);
+        }
+        if (!key.reset()) {
+            directories.remove(key);
+        }
+    }
+
+    /**
+     * Converts a path to a patch file into a resource id. Returns null for anything other than patch files.
+     */
+    @Nullable
+    private static Identifier toFileId(Path typeRoot, Path file) {
+        var relative = typeRoot.relativize(file);
+        // namespace/jsonpatch/path.jsonpatch
+        if (relative.getNameCount() < 3 || !relative.getName(1).toString().equals("jsonpatch")) return null;
+        if (!file.getFileName().toString().endsWith(".jsonpatch")) return null;
+
+        var path = new StringJoiner("/");
+        for (int i = 1; i < relative.getNameCount(); i++) {
+            path.add(relative.getName(i).toString());
+        }
+        return Identifier.tryParse(relative.getName(0) + ":" + path);
+    }
+
+    private void registerTree(Path typeRoot) {
+        if (Files.isDirectory(typeRoot)) registerTree(typeRoot, typeRoot);
+    }
+
+    /**
+     * Registers a directory and all relevant directories below it. Only the root, namespaces and patch folders are relevant.
+     */
+    private void registerTree(Path typeRoot, Path directory) {
+        var relative = typeRoot.relativize(directory);
+        var isRelevant = directory.equals(typeRoot)
+                || relative.getNameCount() == 1
+                || relative.getName(1).toString().equals("jsonpatch");
+        if (!isRelevant) return;
+
+        try {
+            var key = directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+            directories.put(key, new WatchedDirectory(typeRoot, directory));
+            try (Stream<Path> children = Files.list(directory)) {
+                children.filter(Files::isDirectory).forEach(child -> registerTree(typeRoot, child));
+            }
+        } catch (IOException e) {
+            JsonPatcher.RELOAD_LOGGER.warn("Failed to watch {} for patch changes", directory, e);
+        }
+    }
+
+    private void reapply(Identifier fileId) {
+        var start = System.nanoTime();
+        var id = PatchLoader.toPatchId(fileId);
+        var previousStorage = storage;
+        var description = this.description;
+
+        Patch patch;
+        try {
+            var resource = manager.getResource(fileId);
+            patch = resource.isPresent() ? PatchLoader.loadSingle(type, fileId, resource.get()) : null;
+        } catch (PatchingException e) {
+            JsonPatcher.MAIN_LOGGER.error(e.getMessage());
+            return;
+        } catch (RuntimeException e) {
+            JsonPatcher.MAIN_LOGGER.error("Failed to reload patch {}", id, e);
+            return;
+        }
+
+        var patches = new ArrayList<>(previousStorage.getAllPatches());
+        patches.removeIf(existing -> existing.id().equals(id));
+        if (patch != null) patches.add(patch);
+        var newStorage = new PatchStorage(patches, previousStorage);
+        storage = newStorage;
+
+        var files = new LinkedHashSet<>(newStorage.getChangedFiles());
+        if (patch != null && previousStorage.mayHaveSkippedFiles(patch)) {
+            // The patch targets files the previous patches never looked at, so we have to search for them
+            try (var ignored = PatchingContext.disablePatching()) {
+                manager.findResources("", file -> file.getPath().endsWith(".json") && newStorage.hasPatches(file))
+                        .keySet()
+                        .forEach(files::add);
+            }
+        }
+
+        var patcher = new Patcher(description, newStorage);
+        var failures = 0;
+        try {
+            for (var file : files) {
+                try (var ignored = PatchingContext.disablePatching()) {
+                    // Drop the old dump first. Files that reapply unchanged or fail are then never left with a stale dump,
+                    // while files that are patched again get a new one, queued after the removal.
+                    DumpManager.deleteDump(file, description);
+                    var resource = manager.getResource(file);
+                    if (resource.isEmpty()) continue;
+                    if (newStorage.hasPatches(file)) {
+                        patcher.patch(file, resource.get()::getInputStream);
+                    }
+                } catch (RuntimeException e) {
+                    JsonPatcher.RELOAD_LOGGER.error("Failed to reapply patches to {}", file, e);
+                    failures++;
+                }
+            }
+        } finally {
+            patcher.close();
+        }
+
+        JsonPatcher.MAIN_LOGGER.info("Reapplied changed patch {} to {} file(s) in {}ms{}. Reload to apply the changes in game.",
+                id,
+                files.size(),
+                (System.nanoTime() - start) / 1_000_000,
+                failures > 0 ? " with %s failure(s)".formatted(failures) : "");
+    }
+
+    private void close() {
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            JsonPatcher.MAIN_LOGGER.warn("Failed to stop watching patches for {}", type.getDirectory(), e);
+        }
+    }
+
+    private record WatchedDirectory(Path typeRoot, Path path) {
+    }
+}
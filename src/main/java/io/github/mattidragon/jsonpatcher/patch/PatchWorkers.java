@@ -0,0 +1,64 @@
+package io.github.mattidragon.jsonpatcher.patch;
+
+import io.github.mattidragon.jsonpatcher.JsonPatcher;
+import io.github.mattidragon.jsonpatcher.config.Config;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The worker pool shared by all patching work that runs off the calling thread.
+ * It's a bounded work-stealing pool sized from the config, or the amount of cores if not configured.
+ * Workers blocked waiting on each other may be replaced by spare threads, up to twice the parallelism in total.
+ * <p>
+ * Tasks on the workers must never wait for other tasks queued in the pool, as those may never get a thread once it's saturated.
+ * Patches themselves run on the executor of the {@link PatchWatchdog}, which never queues, so waiting on them is safe.
+ */
+public class PatchWorkers {
+    private static final int PARALLELISM = getParallelism();
+    private static final AtomicBoolean SATURATED = new AtomicBoolean();
+    private static final ForkJoinPool POOL = new ForkJoinPool(PARALLELISM, pool -> {
+        var thread = new ForkJoinWorkerThread(pool) {};
+        thread.setName("JsonPatch Worker (%s)".formatted(thread.getPoolIndex()));
+        thread.setDaemon(true);
+        // Default worker threads use the system class loader, which can't see mods
+        thread.setContextClassLoader(PatchWorkers.class.getClassLoader());
+        return thread;
+    }, (thread, error) -> JsonPatcher.MAIN_LOGGER.error("Uncaught exception in {}", thread.getName(), error), false,
+            0, PARALLELISM * 2, 1, PatchWorkers::onSaturated, 60, TimeUnit.SECONDS);
+
+    private PatchWorkers() {
+    }
+
+    public static ForkJoinPool get() {
+        return POOL;
+    }
+
+    public static void logStatistics(String reloadName) {
+        JsonPatcher.RELOAD_LOGGER.info("Patch workers after reload '{}': {} thread(s), {} active, {} queued task(s), {} queued submission(s), {} steal(s)",
+                reloadName,
+                POOL.getPoolSize(),
+                POOL.getActiveThreadCount(),
+                POOL.getQueuedTaskCount(),
+                POOL.getQueuedSubmissionCount(),
+                POOL.getStealCount());
+        SATURATED.set(false);
+    }
+
+    private static boolean onSaturated(ForkJoinPool pool) {
+        // Keep blocking without a spare thread instead of failing the blocked task
+        if (SATURATED.compareAndSet(false, true)) {
+            JsonPatcher.RELOAD_LOGGER.warn("Patch workers are saturated ({} thread(s)), blocked workers are no longer replaced", pool.getPoolSize());
+        }
+        return true;
+    }
+
+    private static int getParallelism() {
+        var configured = Config.MANAGER.get().workerThreads();
+        if (configured > 0) return configured;
+        // Leave a core for the thread waiting on the results
+        return Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+    }
+}
@@ -0,0 +1,180 @@
+package io.github.mattidragon.jsonpatcher.patch;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import io.github.mattidragon.jsonpatcher.JsonPatcher;
+import io.github.mattidragon.jsonpatcher.config.Config;
+import net.fabricmc.loader.api.FabricLoader;
+import net.minecraft.util.Identifier;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * A persistent cache of patched files. Entries are keyed by a hash of the original file, the patches applied to it
+ * and all the libraries they import, so any change to these simply results in a different key.
+ * The cache is bounded in size, with the least recently used entries being evicted first.
+ */
+public class PatchedFileCache {
+    private static final String VERSION = FabricLoader.getInstance()
+            .getModContainer(JsonPatcher.MOD_ID)
+            .map(container -> container.getMetadata().getVersion().getFriendlyString())
+            .orElse("unknown");
+
+    // Access ordered, the first entry is the least recently used. Values are file sizes
+    private static final LinkedHashMap<String, Long> ENTRIES = new LinkedHashMap<>(16, 0.75f, true);
+    private static long totalSize = 0;
+    private static boolean indexed = false;
+
+    private PatchedFileCache() {
+    }
+
+    public static boolean isEnabled() {
+        return Config.MANAGER.get().cachePatchedFiles();
+    }
+
+    /**
+     * Computes the cache key for a file. Patches are hashed along with everything they import, as a change to a library
+     * can change the result of the patch.
+     */
+    public static HashCode computeKey(Identifier id, byte[] original, Collection<Patch> patches, PatchStorage storage) {
+        var hasher = Hashing.sha256().newHasher();
+        hasher.putString(VERSION, StandardCharsets.UTF_8);
+        hasher.putString(id.toString(), StandardCharsets.UTF_8);
+        hasher.putBytes(original);
+        for (var patch : patches) {
+            putPatch(hasher, patch);
+
+            // Sort libraries to keep the key stable
+            var libraries = new TreeMap<Identifier, Patch>();
+            storage.collectLibraries(patch, libraries);
+            libraries.values().forEach(library -> putPatch(hasher, library));
+        }
+        return hasher.hash();
+    }
+
+    private static void putPatch(Hasher hasher, Patch patch) {
+        hasher.putString(patch.id().toString(), StandardCharsets.UTF_8);
+        hasher.putBytes(patch.hash().asBytes());
+    }
+
+    @Nullable
+    public static byte[] get(HashCode key) {
+        var name = key.toString();
+        synchronized (PatchedFileCache.class) {
+            index();
+            if (ENTRIES.get(name) == null) return null;
+        }
+
+        var file = getPath(name);
+        try {
+            var bytes = Files.readAllBytes(file);
+            // Persist the access so that the order survives restarts
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            return bytes;
+        } catch (IOException e) {
+            JsonPatcher.RELOAD_LOGGER.warn("Failed to read cached file {}", file, e);
+            synchronized (PatchedFileCache.class) {
+                remove(name);
+            }
+            return null;
+        }
+    }
+
+    public static void put(HashCode key, byte[] data) {
+        var name = key.toString();
+        var file = getPath(name);
+        synchronized (PatchedFileCache.class) {
+            // Index before writing, as indexing removes leftover temporary files
+            index();
+        }
+        try {
+            Files.createDirectories(file.getParent());
+            // Write to a temporary file first to never leave a partial entry behind
+            var tempFile = Files.createTempFile(file.getParent(), name, ".tmp");
+            Files.write(tempFile, data);
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            JsonPatcher.RELOAD_LOGGER.warn("Failed to write cached file {}", file, e);
+            return;
+        }
+
+        synchronized (PatchedFileCache.class) {
+            var previous = ENTRIES.put(name, (long) data.length);
+            totalSize += data.length - (previous == null ? 0 : previous);
+            evict();
+        }
+    }
+
+    private static void evict() {
+        var maxSize = Config.MANAGER.get().patchCacheSizeMb() * 1024L * 1024L;
+        var iterator = ENTRIES.entrySet().iterator();
+        while (totalSize > maxSize && iterator.hasNext()) {
+            var entry = iterator.next();
+            iterator.remove();
+            totalSize -= entry.getValue();
+            try {
+                Files.deleteIfExists(getPath(entry.getKey()));
+            } catch (IOException e) {
+                JsonPatcher.RELOAD_LOGGER.warn("Failed to evict cached file {}", entry.getKey(), e);
+            }
+        }
+    }
+
+    private static void remove(String name) {
+        var size = ENTRIES.remove(name);
+        if (size != null) totalSize -= size;
+    }
+
+    /**
+     * Loads existing entries from disk the first time the cache is used, ordered by their last access.
+     */
+    private static void index() {
+        if (indexed) return;
+        indexed = true;
+
+        var directory = getCacheDirectory();
+        if (!Files.isDirectory(directory)) return;
+
+        record Entry(String name, long size, FileTime lastAccess) {}
+        var entries = new ArrayList<Entry>();
+        try (Stream<Path> stream = Files.walk(directory, 2)) {
+            stream.filter(Files::isRegularFile).forEach(file -> {
+                var name = file.getFileName().toString();
+                try {
+                    if (name.endsWith(".tmp")) {
+                        Files.delete(file);
+                    } else {
+                        entries.add(new Entry(name, Files.size(file), Files.getLastModifiedTime(file)));
+                    }
+                } catch (IOException e) {
+                    JsonPatcher.RELOAD_LOGGER.warn("Failed to index cached file {}", file, e);
+                }
+            });
+        } catch (IOException e) {
+            JsonPatcher.RELOAD_LOGGER.error("Failed to index patch cache", e);
+        }
+
+        entries.sort(Comparator.comparing(Entry::lastAccess));
+        for (var entry : entries) {
+            ENTRIES.put(entry.name(), entry.size());
+            totalSize += entry.size();
+        }
+        evict();
+    }
+
+    private static Path getPath(String name) {
+        // Split into subdirectories to avoid huge directories
+        return getCacheDirectory().resolve(name.substring(0, 2)).resolve(name);
+    }
+
+    private static Path getCacheDirectory() {
+        return FabricLoader.getInstance().getGameDir().resolve("jsonpatcher-cache");
+    }
+}
@@ -0,0 +1,131 @@
+package io.github.mattidragon.jsonpatcher.patch;
+
+import com.google.gson.JsonElement;
+import net.minecraft.resource.InputSupplier;
+import net.minecraft.util.Identifier;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * An input supplier that patches the original file the first time it's opened, on the thread opening it.
+ * The result is memoized and shared between all later opens. Resources that are never opened are never patched.
+ * <p>
+ * Patching can also be started ahead of time on a {@link PatchWorkers worker} using {@link #prefetch()}.
+ * Opening the file while it's being prefetched waits for the prefetch instead of patching it again.
+ * <p>
+ * Once the reload ends the supplier is {@link #release(Function) released}. Files that were already patched keep only
+ * their result, while files that weren't switch to a detached patcher holding just the patches they need.
+ */
+public class PatchedInputSupplier implements InputSupplier<InputStream> {
+    private final Identifier id;
+    private final InputSupplier<InputStream> original;
+    private final AtomicReference<State> state;
+
+    PatchedInputSupplier(Patcher patcher, Identifier id, InputSupplier<InputStream> original) {
+        this.id = id;
+        this.original = original;
+        this.state = new AtomicReference<>(new State.Pending(patcher));
+    }
+
+    @Override
+    public InputStream get() throws IOException {
+        return getResult().get();
+    }
+
+    /**
+     * Gets the patched file as a gson tree, patching it first if needed. Loaders that want a tree anyway can use this to
+     * skip serializing and parsing the file. Each call returns a new tree.
+     * @return The patched tree, or null if the result is only available as bytes, such as when it came from the cache or was already read as a stream
+     */
+    @Nullable
+    public JsonElement getPatchedJson() {
+        return getResult() instanceof Patcher.TreeSupplier tree ? tree.toJson() : null;
+    }
+
+    private InputSupplier<InputStream> getResult() {
+        var result = start();
+        if (result.pending != null) run(result.pending.patcher, result.started.result);
+        try {
+            return result.started.result.join();
+        } catch (CompletionException e) {
+            // Rethrow failures as they were thrown by the patcher
+            if (e.getCause() instanceof RuntimeException cause) throw cause;
+            if (e.getCause() instanceof Error cause) throw cause;
+            throw e;
+        }
+    }
+
+    /**
+     * Starts patching the file on a worker, unless it's already being patched.
+     */
+    public void prefetch() {
+        var result = start();
+        if (result.pending != null) {
+            PatchWorkers.get().execute(() -> run(result.pending.patcher, result.started.result));
+        }
+    }
+
+    /**
+     * Moves the supplier to the started state, unless it already is.
+     * @return The started state, along with the pending state it replaced if the caller is the one that has to run the patcher
+     */
+    private StartResult start() {
+        while (true) {
+            var current = state.get();
+            if (current instanceof State.Started started) return new StartResult(started, null);
+            var started = new State.Started(new CompletableFuture<>());
+            if (state.compareAndSet(current, started)) return new StartResult(started, (State.Pending) current);
+        }
+    }
+
+    /**
+     * Drops the patcher of the reload, keeping only what's needed to read the file later. Called when the reload ends,
+     * as reloaders may keep resources around much longer. Patching that is still in progress finishes normally.
+     * @param detach Gets a detached patcher for a file, holding only the patches it needs
+     */
+    void release(Function<Identifier, Patcher> detach) {
+        while (true) {
+            var current = state.get();
+            if (current instanceof State.Started started) {
+                started.result.thenAccept(supplier -> {
+                    if (supplier instanceof Patcher.TreeSupplier tree) tree.detach();
+                });
+                return;
+            }
+            if (state.compareAndSet(current, new State.Pending(detach.apply(id)))) return;
+        }
+    }
+
+    private void run(Patcher patcher, CompletableFuture<InputSupplier<InputStream>> result) {
+        try {
+            result.complete(patcher.patch(id, original));
+        } catch (RuntimeException | Error e) {
+            // Memoize failures instead of running broken patches again on every open
+            result.completeExceptionally(e);
+        }
+    }
+
+    private sealed interface State {
+        /**
+         * Not opened yet.
+         * @param patcher The patcher of the reload, or a detached one once released
+         */
+        record Pending(Patcher patcher) implements State {
+        }
+
+        record Started(CompletableFuture<InputSupplier<InputStream>> result) implements State {
+        }
+    }
+
+    /**
+     * @param pending The state replaced by starting, or null if it was already started by someone else
+     */
+    private record StartResult(State.Started started, @Nullable State.Pending pending) {
+    }
+}
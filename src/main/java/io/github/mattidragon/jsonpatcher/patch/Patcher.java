@@ -1,10 +1,8 @@
 package io.github.mattidragon.jsonpatcher.patch;
 
-import com.google.common.util.concurrent.ThreadFactoryBuilder;
-import com.google.gson.Gson;
+import com.google.common.io.CountingInputStream;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonParseException;
-import com.google.gson.stream.JsonWriter;
 import io.github.mattidragon.jsonpatcher.JsonPatcher;
 import io.github.mattidragon.jsonpatcher.config.Config;
 import io.github.mattidragon.jsonpatcher.lang.runtime.EvaluationContext;
@@ -16,32 +14,44 @@ import io.github.mattidragon.jsonpatcher.misc.DumpManager;
 import io.github.mattidragon.jsonpatcher.misc.GsonConverter;
 import io.github.mattidragon.jsonpatcher.misc.MetaPatchPackAccess;
 import io.github.mattidragon.jsonpatcher.misc.ReloadDescription;
+import io.github.mattidragon.jsonpatcher.misc.ValueReader;
+import io.github.mattidragon.jsonpatcher.misc.ValueSnapshot;
+import io.github.mattidragon.jsonpatcher.misc.ValueWriter;
 import net.minecraft.resource.InputSupplier;
 import net.minecraft.resource.ResourceManager;
+import net.minecraft.resource.ResourceType;
 import net.minecraft.text.Text;
 import net.minecraft.util.Formatting;
 import net.minecraft.util.Identifier;
-import net.minecraft.util.JsonHelper;
-import org.apache.commons.lang3.mutable.MutableObject;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
-import java.util.concurrent.*;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 public class Patcher {
-    private static final ExecutorService PATCHING_EXECUTOR = new ThreadPoolExecutor(0,
-            Integer.MAX_VALUE,
-            5,
-            TimeUnit.SECONDS,
-            new SynchronousQueue<>(),
-            new ThreadFactoryBuilder().setNameFormat("JsonPatch Patcher (%s)").build());
-
-    private static final Gson GSON = new Gson();
     private final ReloadDescription description;
     private final PatchStorage patches;
+    private final AtomicInteger cacheHits = new AtomicInteger();
+    private final AtomicInteger cacheMisses = new AtomicInteger();
+    // Every supplier handed out during the reload, to release them once it ends
+    private final Set<PatchedInputSupplier> suppliers = ConcurrentHashMap.newKeySet();
+    @Nullable
+    private SpillFile spillFile;
+    private boolean closed = false;
 
     public Patcher(ReloadDescription description, PatchStorage patches) {
         this.description = description;
@@ -52,22 +62,47 @@ public class Patcher {
         return patches.hasPatches(id);
     }
 
-    private JsonElement applyPatches(JsonElement json, Identifier id) {
+    private PatchResult applyPatches(Value.ObjectValue json, Identifier id, List<Patch> patchList) {
         var errors = new ArrayList<Exception>();
-        var activeJson = new MutableObject<>(JsonHelper.asObject(json, "patched file"));
+        var root = json;
+        var changed = true;
+        ValueSnapshot original = null;
         try {
-            for (var patch : patches.getPatches(id)) {
-                var root = GsonConverter.fromGson(activeJson.getValue());
+            // All patches share one tree. Failed patches are undone by restoring the snapshot from before them.
+            // When failures abort the reload nothing is ever undone, so the tree is only snapshotted before and after
+            // the chain, to validate it and to detect whether it changed. With a single patch the file always counts as changed.
+            var abortOnFailure = Config.MANAGER.get().abortOnFailure();
+            original = patchList.size() > 1 || !abortOnFailure ? ValueSnapshot.take(root) : null;
+            var snapshot = original;
+            for (var patch : patchList) {
                 var timeBeforePatch = System.nanoTime();
-                var success = runPatch(patch, PATCHING_EXECUTOR, errors::add, patches, root, Settings.builder()
+                var success = runPatch(patch, errors::add, patches, root, Settings.builder()
                         .target(id.toString())
                         .build());
                 var timeAfterPatch = System.nanoTime();
                 JsonPatcher.RELOAD_LOGGER.debug("Patched {} with {} in {}ms", id, patch.id(), (timeAfterPatch - timeBeforePatch) / 1e6);
+                // The reload is aborted after the chain, so a broken tree is never used
+                if (abortOnFailure) continue;
                 if (success) {
-                    activeJson.setValue(GsonConverter.toGson(root));
+                    try {
+                        snapshot = snapshot.update(root);
+                        continue;
+                    } catch (IllegalStateException e) {
+                        errors.add(new PatchingException("Patch %s left behind invalid json: %s".formatted(patch.id(), e.getMessage()), e));
+                    }
                 }
+                root = snapshot.restore();
+                snapshot = ValueSnapshot.take(root);
             }
+            if (abortOnFailure && errors.isEmpty()) {
+                try {
+                    snapshot = original == null ? ValueSnapshot.take(root) : original.update(root);
+                } catch (IllegalStateException e) {
+                    errors.add(new PatchingException("Patches %s left behind invalid json: %s".formatted(toIds(patchList), e.getMessage()), e));
+                }
+            }
+            // Many patches only read the file or only change it sometimes. Comparing is much cheaper than serializing.
+            changed = original == null || !original.contentEquals(snapshot);
         } catch (RuntimeException e) {
             errors.add(e);
         }
@@ -81,13 +116,12 @@ public class Patcher {
                 JsonPatcher.MAIN_LOGGER.error(message);
             }
         }
-        return activeJson.getValue();
+        return new PatchResult(root, errors.isEmpty(), changed, original);
     }
 
     /**
-     * Runs a patch with proper error handling.
+     * Runs a patch with proper error handling. The patch runs on a separate thread and is abandoned if it exceeds the timeout.
      * @param patch The patch to run.
-     * @param executor An executor to run the patch on, required to run on another thread for timeout to work
      * @param errorConsumer A consumer the receives errors from the patch.
      *                      Errors are either {@link EvaluationException EvaluationExceptions} for errors within the patch,
      *                      or {@link RuntimeException RuntimeExceptions} for timeouts and other errors not from the patch itself
@@ -95,24 +129,19 @@ public class Patcher {
      * @param root The root object for the patch context, will be modified
      * @return {@code true} if the patch completed successfully. If {@code false} the {@code errorConsumer} should have received an error.
      */
-    public static boolean runPatch(Patch patch, Executor executor, Consumer<RuntimeException> errorConsumer, PatchStorage patchStorage, Value.ObjectValue root, Settings settings) {
+    public static boolean runPatch(Patch patch, Consumer<RuntimeException> errorConsumer, PatchStorage patchStorage, Value.ObjectValue root, Settings settings) {
         try {
             var context = buildContext(patch.id(), patchStorage, root, settings);
-            CompletableFuture.runAsync(() -> patch.program().execute(context), executor)
-                    .get(Config.MANAGER.get().patchTimeoutMillis(), TimeUnit.MILLISECONDS);
+            PatchWatchdog.run(() -> patch.program().execute(context), Config.MANAGER.get().patchTimeoutMillis());
             return true;
-        } catch (ExecutionException e) {
-            if (e.getCause() instanceof EvaluationException cause) {
-                errorConsumer.accept(cause);
-            } else if (e.getCause() instanceof StackOverflowError cause) {
-                errorConsumer.accept(new PatchingException("Stack overflow while applying patch %s".formatted(patch.id()), cause));
-            } else {
-                errorConsumer.accept(new RuntimeException("Unexpected error while applying patch %s".formatted(patch.id()), e));
-            }
-        } catch (InterruptedException e) {
-            errorConsumer.accept(new PatchingException("Async error while applying patch %s".formatted(patch.id()), e));
+        } catch (EvaluationException e) {
+            errorConsumer.accept(e);
+        } catch (StackOverflowError e) {
+            errorConsumer.accept(new PatchingException("Stack overflow while applying patch %s".formatted(patch.id()), e));
         } catch (TimeoutException e) {
             errorConsumer.accept(new PatchingException("Timeout while applying patch %s. Check for infinite loops and increase the timeout in the config.".formatted(patch.id()), e));
+        } catch (RuntimeException e) {
+            errorConsumer.accept(new RuntimeException("Unexpected error while applying patch %s".formatted(patch.id()), e));
         }
         return false;
     }
@@ -121,7 +150,10 @@ public class Patcher {
         var builder = EvaluationContext.builder();
         builder.root(root);
         builder.libraryLocator(libraryLocator);
-        builder.debugConsumer(value -> JsonPatcher.RELOAD_LOGGER.info("Debug from {}: {}", patchId, value));
+        builder.debugConsumer(value -> {
+            PatchWatchdog.checkDeadline();
+            JsonPatcher.RELOAD_LOGGER.info("Debug from {}: {}", patchId, value);
+        });
         builder.variable("_isLibrary", settings.isLibrary());
         builder.variable("_target", settings.targetAsValue());
         builder.variable("_isMetapatch", settings.isMetaPatch());
@@ -133,19 +165,72 @@ public class Patcher {
 
     public InputSupplier<InputStream> patchInputStream(Identifier id, InputSupplier<InputStream> stream) {
         if (!hasPatches(id)) return stream;
+        var supplier = new PatchedInputSupplier(this, id, stream);
+        suppliers.add(supplier);
+        return supplier;
+    }
 
+    /**
+     * Reads and patches a file right away. Normally called by {@link PatchedInputSupplier} the first time the file is opened.
+     * @return A supplier for the patched file, or the original supplier if patching failed and the reload shouldn't abort
+     */
+    InputSupplier<InputStream> patch(Identifier id, InputSupplier<InputStream> stream) {
         try {
             JsonPatcher.RELOAD_LOGGER.debug("Patching {}", id);
-            var json = GSON.fromJson(new InputStreamReader(stream.get()), JsonElement.class);
-            json = applyPatches(json, id);
+            var patchList = patches.getPatches(id);
 
-            var out = new ByteArrayOutputStream();
-            var writer = new OutputStreamWriter(out);
-            GSON.toJson(json, new JsonWriter(writer));
-            writer.close();
+            if (!PatchedFileCache.isEnabled()) {
+                PatchResult result;
+                long size;
+                try (var in = new CountingInputStream(stream.get())) {
+                    result = applyPatches(ValueReader.readObject(in), id, patchList);
+                    size = in.getCount();
+                }
+                // Unchanged files are passed on as is, without serializing them
+                if (!result.changed()) {
+                    dump(id, result, patchList);
+                    return stream;
+                }
+                // Files that will likely be spilled are spilled right away, as keeping their trees would defeat the point.
+                // The size of the original is only an estimate, but patches rarely change the size of a file much.
+                if (shouldSpill(size)) return store(serialize(id, result, patchList));
+                // Loaders that want a tree take it directly, the bytes are only built for those that read the stream
+                return keepTree(id, result, patchList);
+            }
+
+            byte[] original;
+            try (var in = stream.get()) {
+                original = in.readAllBytes();
+            }
+            var key = PatchedFileCache.computeKey(id, original, patchList, patches);
+            var cached = PatchedFileCache.get(key);
+            if (cached != null) {
+                cacheHits.incrementAndGet();
+                JsonPatcher.RELOAD_LOGGER.debug("Using cached result for {}", id);
+                // Empty entries mark files that the patches left unchanged
+                var unchanged = cached.length == 0;
+                if (DumpManager.isEnabled(description)) {
+                    var patched = ValueReader.readObject(new ByteArrayInputStream(unchanged ? original : cached));
+                    DumpManager.dumpIfEnabled(id, description, unchanged ? () -> patched : () -> readOriginal(id, original), patched, toIds(patchList));
+                }
+                return store(unchanged ? original : cached);
+            }
+            cacheMisses.incrementAndGet();
 
-            DumpManager.dumpIfEnabled(id, description, json);
-            return () -> new ByteArrayInputStream(out.toByteArray());
+            var result = applyPatches(ValueReader.readObject(new ByteArrayInputStream(original)), id, patchList);
+            byte[] bytes;
+            if (result.changed()) {
+                bytes = serialize(id, result, patchList);
+            } else {
+                dump(id, result, patchList);
+                bytes = original;
+            }
+            // Files with errors aren't cached so that the errors are reported again
+            if (result.success()) {
+                // Unchanged files are stored as empty entries, as json is never empty
+                PatchedFileCache.put(key, result.changed() ? bytes : new byte[0]);
+            }
+            return store(bytes);
         } catch (JsonParseException | IOException e) {
             JsonPatcher.RELOAD_LOGGER.error("Failed to patch json at {}", id, e);
             if (Config.MANAGER.get().abortOnFailure()) {
@@ -155,7 +240,110 @@ public class Patcher {
         }
     }
 
-    public void runMetaPatches(ResourceManager manager, Executor executor) {
+    private byte[] serialize(Identifier id, PatchResult result, List<Patch> patchList) {
+        dump(id, result, patchList);
+        return ValueWriter.write(result.root());
+    }
+
+    private TreeSupplier keepTree(Identifier id, PatchResult result, List<Patch> patchList) {
+        dump(id, result, patchList);
+        return new TreeSupplier(this, result.root());
+    }
+
+    private void dump(Identifier id, PatchResult result, List<Patch> patchList) {
+        var original = result.original();
+        var root = result.root();
+        // The tree of an unchanged file is equal to the original, so there's no need to restore it
+        Supplier<Value.ObjectValue> originalSupplier = !result.changed() ? () -> root : () -> original == null ? null : original.restore();
+        DumpManager.dumpIfEnabled(id, description, originalSupplier, root, toIds(patchList));
+    }
+
+    @Nullable
+    private static Value.ObjectValue readOriginal(Identifier id, byte[] original) {
+        try {
+            return ValueReader.readObject(new ByteArrayInputStream(original));
+        } catch (IOException | JsonParseException e) {
+            JsonPatcher.RELOAD_LOGGER.warn("Failed to read original of {} for dumping", id, e);
+            return null;
+        }
+    }
+
+    private static List<Identifier> toIds(List<Patch> patchList) {
+        return patchList.stream().map(Patch::id).toList();
+    }
+
+    /**
+     * Stores a patched file for reading. Files above the spill threshold are moved to a {@link SpillFile} to keep them off the heap.
+     */
+    private InputSupplier<InputStream> store(byte[] bytes) {
+        if (!shouldSpill(bytes.length)) return new ByteArraySupplier(bytes);
+
+        try {
+            var spillFile = getSpillFile();
+            if (spillFile != null) return spillFile.write(bytes);
+        } catch (IOException e) {
+            JsonPatcher.RELOAD_LOGGER.warn("Failed to move patched file to disk, keeping it in memory", e);
+        }
+        return new ByteArraySupplier(bytes);
+    }
+
+    private static boolean shouldSpill(long size) {
+        var threshold = Config.MANAGER.get().spillThresholdKb() * 1024L;
+        return threshold > 0 && size >= threshold;
+    }
+
+    @Nullable
+    private synchronized SpillFile getSpillFile() throws IOException {
+        // Files serialized after the reload ended stay in memory, as nothing would delete a new spill file
+        if (closed) return null;
+        if (spillFile == null) spillFile = SpillFile.create();
+        return spillFile;
+    }
+
+    /**
+     * Releases everything held for the reload: the library results and the spill file.
+     * Resources kept by reloaders stop referencing the patcher, so it and the storage can be collected.
+     * Files that were already patched and streams that were already opened stay readable. Files that weren't patched yet
+     * get a detached patcher with only the patches they need, shared between files with the same patches.
+     */
+    public synchronized void close() {
+        closed = true;
+        var detached = new HashMap<List<Identifier>, Patcher>();
+        suppliers.forEach(supplier -> supplier.release(id -> detach(id, detached)));
+        suppliers.clear();
+        patches.releaseLibraryResults();
+        if (spillFile != null) {
+            spillFile.close();
+            spillFile = null;
+        }
+    }
+
+    /**
+     * Creates a patcher for reading a file after the reload ended, with a storage holding only the patches of the file
+     * and the libraries they import.
+     */
+    private Patcher detach(Identifier id, Map<List<Identifier>, Patcher> detached) {
+        var patchList = patches.getPatches(id);
+        return detached.computeIfAbsent(toIds(patchList), ids -> {
+            var chain = new LinkedHashMap<Identifier, Patch>();
+            for (var patch : patchList) {
+                chain.put(patch.id(), patch);
+                patches.collectLibraries(patch, chain);
+            }
+            var patcher = new Patcher(description, new PatchStorage(List.copyOf(chain.values())));
+            // Nothing would close it, so it must never create a spill file
+            patcher.closed = true;
+            return patcher;
+        });
+    }
+
+    public void logStatistics() {
+        if (cacheHits.get() + cacheMisses.get() > 0) {
+            JsonPatcher.RELOAD_LOGGER.info("Patch cache for reload '{}': {} hit(s), {} miss(es)", description.name(), cacheHits.get(), cacheMisses.get());
+        }
+    }
+
+    public void runMetaPatches(ResourceManager manager) {
         if (!(manager instanceof MetaPatchPackAccess packAccess)) {
             JsonPatcher.MAIN_LOGGER.error("Failed to run meta patches: resource manager doesn't expose meta pack");
             return;
@@ -165,22 +353,36 @@ public class Patcher {
         metaPack.clear();
 
         var metaPatches = new ArrayList<>(patches.getMetaPatches());
-        metaPatches.sort(Comparator.comparing(Patch::priority));
+        metaPatches.sort(Comparator.comparing(Patch::priority).thenComparing(Patch::id));
+        MetapatchCache.retain(metaPack.type, metaPatches);
         var lib = new MetapatchLibrary(manager);
-        var errors = new ArrayList<RuntimeException>();
+        var errors = Collections.synchronizedList(new ArrayList<RuntimeException>());
+        var reuseCount = new AtomicInteger(0);
 
-        try {
-            for (var patch : metaPatches) {
-                var timeBeforePatch = System.nanoTime();
-                runPatch(patch, executor, errors::add, patches, new Value.ObjectValue(), Settings.builder()
-                        .metaPatchLibrary(lib)
-                        .build());
-                var timeAfterPatch = System.nanoTime();
-                JsonPatcher.RELOAD_LOGGER.debug("Ran meta patch {} in {}ms", patch.id(), (timeAfterPatch - timeBeforePatch) / 1e6);
+        // Meta patches with the same priority can't depend on each other, as none of them see the others' files.
+        // Each of them runs in parallel with its own library, which are then merged in order to get the same result as running them one by one.
+        var start = 0;
+        while (start < metaPatches.size()) {
+            var end = start + 1;
+            while (end < metaPatches.size() && metaPatches.get(end).priority() == metaPatches.get(start).priority()) {
+                end++;
+            }
+            var group = metaPatches.subList(start, end);
+            start = end;
+
+            if (group.size() == 1) {
+                lib.merge(runMetaPatch(group.get(0), manager, metaPack.type, errors, reuseCount));
+                continue;
+            }
+            var futures = new ArrayList<CompletableFuture<MetapatchLibrary.Result>>();
+            for (var patch : group) {
+                futures.add(CompletableFuture.supplyAsync(() -> runMetaPatch(patch, manager, metaPack.type, errors, reuseCount), PatchWorkers.get()));
+            }
+            for (var future : futures) {
+                lib.merge(future.join());
             }
-        } catch (RuntimeException e) {
-            errors.add(e);
         }
+        JsonPatcher.RELOAD_LOGGER.debug("Reused results of {} unchanged meta patch(es) from previous reloads", reuseCount.get());
 
         if (!errors.isEmpty()) {
             errors.forEach(error -> JsonPatcher.RELOAD_LOGGER.error("Error while running meta patch", error));
@@ -197,6 +399,157 @@ public class Patcher {
         lib.apply(metaPack);
     }
 
+    /**
+     * Runs a single meta patch with its own library, or reuses its result from a previous reload if nothing it depends on changed.
+     */
+    private MetapatchLibrary.Result runMetaPatch(Patch patch, ResourceManager manager, ResourceType type, List<RuntimeException> errors, AtomicInteger reuseCount) {
+        var cached = MetapatchCache.get(type, patch, patches, manager);
+        if (cached != null) {
+            reuseCount.incrementAndGet();
+            return cached;
+        }
+
+        var lib = new MetapatchLibrary(manager);
+        var patchErrors = new ArrayList<RuntimeException>();
+        try {
+            var timeBeforePatch = System.nanoTime();
+            runPatch(patch, patchErrors::add, patches, new Value.ObjectValue(), Settings.builder()
+                    .metaPatchLibrary(lib)
+                    .build());
+            var timeAfterPatch = System.nanoTime();
+            JsonPatcher.RELOAD_LOGGER.debug("Ran meta patch {} in {}ms", patch.id(), (timeAfterPatch - timeBeforePatch) / 1e6);
+        } catch (RuntimeException e) {
+            patchErrors.add(e);
+        }
+
+        var result = lib.getResult();
+        if (patchErrors.isEmpty()) {
+            MetapatchCache.put(type, patch, patches, result);
+        } else {
+            // Failed patches run again every time, so that their errors keep being reported
+            MetapatchCache.remove(type, patch.id());
+            errors.addAll(patchErrors);
+        }
+        return result;
+    }
+
+    /**
+     * @param original A snapshot of the file before patching, or null if it wasn't taken or taking it failed
+     */
+    private record PatchResult(Value.ObjectValue root, boolean success, boolean changed, @Nullable ValueSnapshot original) {
+    }
+
+    /**
+     * Supplies streams of an array. Every stream shares the array, which is safe as {@link ByteArrayInputStream} never modifies it.
+     */
+    private record ByteArraySupplier(byte[] bytes) implements InputSupplier<InputStream> {
+        @Override
+        public InputStream get() {
+            return new ByteArrayInputStream(bytes);
+        }
+    }
+
+    /**
+     * Supplies a patched tree, serializing it only once something reads from a stream.
+     * Loaders that want a tree anyway can skip both serializing and parsing it with {@link #toJson()}.
+     * The tree is dropped once serialized, so that spilled files don't stay on the heap.
+     */
+    static final class TreeSupplier implements InputSupplier<InputStream> {
+        // Null once serialized
+        @Nullable
+        private volatile Value.ObjectValue root;
+        // Used to store the serialized tree, null once the reload ended
+        @Nullable
+        private volatile Patcher patcher;
+        @Nullable
+        private volatile InputSupplier<InputStream> serialized;
+
+        private TreeSupplier(Patcher patcher, Value.ObjectValue root) {
+            this.patcher = patcher;
+            this.root = root;
+        }
+
+        /**
+         * Stops referencing the patcher, so that it can be collected even if the tree is kept around.
+         */
+        void detach() {
+            patcher = null;
+        }
+
+        @Override
+        public InputStream get() {
+            return new LazyInputStream(() -> serialized().get());
+        }
+
+        /**
+         * @return The tree as gson, or null if it was already serialized and dropped
+         */
+        @Nullable
+        JsonElement toJson() {
+            var root = this.root;
+            return root == null ? null : GsonConverter.toGson(root);
+        }
+
+        private InputSupplier<InputStream> serialized() {
+            var serialized = this.serialized;
+            if (serialized != null) return serialized;
+            synchronized (this) {
+                serialized = this.serialized;
+                if (serialized == null) {
+                    var bytes = ValueWriter.write(Objects.requireNonNull(root));
+                    var patcher = this.patcher;
+                    serialized = patcher == null ? new ByteArraySupplier(bytes) : patcher.store(bytes);
+                    this.serialized = serialized;
+                    root = null;
+                }
+                return serialized;
+            }
+        }
+    }
+
+    /**
+     * A stream that is only opened on the first read, so that streams opened just to be passed along cost nothing.
+     */
+    private static final class LazyInputStream extends InputStream {
+        private final InputSupplier<InputStream> source;
+        @Nullable
+        private InputStream delegate;
+
+        private LazyInputStream(InputSupplier<InputStream> source) {
+            this.source = source;
+        }
+
+        private InputStream delegate() throws IOException {
+            if (delegate == null) delegate = source.get();
+            return delegate;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return delegate().read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return delegate().read(b, off, len);
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            return delegate().skip(n);
+        }
+
+        @Override
+        public int available() throws IOException {
+            return delegate().available();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (delegate != null) delegate.close();
+        }
+    }
+
     public record Settings(@Nullable String target, boolean isLibrary, @Nullable MetapatchLibrary metaPatchLibrary) {
         public static Builder builder() {
             return new Builder();
@@ -2,6 +2,7 @@ package io.github.mattidragon.jsonpatcher.patch;
 
 import io.github.mattidragon.jsonpatcher.JsonPatcher;
 import io.github.mattidragon.jsonpatcher.misc.DumpManager;
+import io.github.mattidragon.jsonpatcher.misc.PatchStorageAccess;
 import io.github.mattidragon.jsonpatcher.misc.ReloadDescription;
 import net.minecraft.resource.InputSupplier;
 import net.minecraft.resource.ResourceManager;
@@ -16,7 +17,9 @@ public class PatchingContext {
 
     private final ReloadDescription description;
     private boolean loaded = false;
-    private Patcher patcher = null;
+    private volatile Patcher patcher = null;
+    private PatchStorageAccess storageHolder = null;
+    private boolean keepPatches = false;
 
     public PatchingContext(ReloadDescription description) {
         this.description = description;
@@ -54,16 +57,63 @@ public class PatchingContext {
     public void load(ResourceManager manager, Executor executor) {
         if (loaded) throw new IllegalStateException("Already loaded");
 
-        var patches = PatchLoader.load(executor, manager);
         DumpManager.cleanDump(description.dumpPath());
 
+        // The dynamic registries and datapacks are loaded from the same resource manager during server startup.
+        // Patches, and the meta patch results in the manager, only need to be loaded once for both of them.
+        if (manager instanceof PatchStorageAccess access && access.jsonpatcher$getPatchStorage() != null) {
+            var patches = access.jsonpatcher$getPatchStorage();
+            JsonPatcher.RELOAD_LOGGER.info("Reusing {} patches for reload '{}'", patches.size(), description.name());
+            patcher = new Patcher(description, patches);
+            storageHolder = access;
+            PatchWatcher.watch(manager, description, patches);
+            loaded = true;
+            return;
+        }
+
+        var patches = PatchLoader.load(executor, manager);
+
         JsonPatcher.RELOAD_LOGGER.info("Loaded {} patches for reload '{}'", patches.size(), description.name());
 
         patcher = new Patcher(description, patches);
-        patcher.runMetaPatches(manager, executor);
+        patcher.runMetaPatches(manager);
+        if (manager instanceof PatchStorageAccess access) {
+            access.jsonpatcher$setPatchStorage(patches);
+            storageHolder = access;
+        }
+        PatchWatcher.watch(manager, description, patches);
         loaded = true;
     }
 
+    /**
+     * Keeps the patches stored in the resource manager when this context finishes, so that the next reload from the
+     * same manager can reuse them. That reload clears them once it finishes.
+     */
+    public void keepPatchesForNextReload() {
+        keepPatches = true;
+    }
+
+    /**
+     * Called once the reload using this context has completed.
+     */
+    public void finish() {
+        if (storageHolder != null && !keepPatches) {
+            // Resource managers can outlive the reload by a lot, they shouldn't keep the patches alive
+            storageHolder.jsonpatcher$setPatchStorage(null);
+        }
+        storageHolder = null;
+        if (patcher != null) {
+            patcher.logStatistics();
+            patcher.close();
+            // Nothing from this reload should be reachable through the context anymore
+            patcher = null;
+        }
+        if (DumpManager.isEnabled(description)) {
+            DumpManager.flush();
+        }
+        PatchWorkers.logStatistics(description.name());
+    }
+
     public static InputSupplier<InputStream> patchInputStream(Identifier id, InputSupplier<InputStream> stream) {
         if (!id.getPath().endsWith(".json")) return stream;
 
@@ -75,8 +125,13 @@ public class PatchingContext {
             return stream;
         }
         if (!context.loaded) throw new IllegalStateException("Context not loaded");
+        var patcher = context.patcher;
+        if (patcher == null) {
+            JsonPatcher.RELOAD_LOGGER.warn("Reload already ended when patching {}", id, new Throwable("Stacktrace"));
+            return stream;
+        }
 
-        return context.patcher.patchInputStream(id, stream);
+        return patcher.patchInputStream(id, stream);
     }
 
     private record Stored(PatchingContext context, int count) {
@@ -0,0 +1,100 @@
+package io.github.mattidragon.jsonpatcher.patch;
+
+import io.github.mattidragon.jsonpatcher.JsonPatcher;
+import net.minecraft.resource.InputSupplier;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A temporary file that large patched files are moved to during a reload, to keep them off the heap.
+ * Files are appended to the end and read back through memory mapped views. The file is deleted when closed,
+ * but views stay readable afterward, as mappings outlive both the channel and the file.
+ */
+class SpillFile implements AutoCloseable {
+    private final Path path;
+    private final FileChannel channel;
+    private long size = 0;
+
+    private SpillFile(Path path, FileChannel channel) {
+        this.path = path;
+        this.channel = channel;
+    }
+
+    static SpillFile create() throws IOException {
+        var path = Files.createTempFile("jsonpatcher-", ".spill");
+        try {
+            var channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            return new SpillFile(path, channel);
+        } catch (IOException e) {
+            Files.deleteIfExists(path);
+            throw e;
+        }
+    }
+
+    /**
+     * Writes a file and returns a supplier reading it back from a memory mapped view.
+     */
+    synchronized InputSupplier<InputStream> write(byte[] bytes) throws IOException {
+        var offset = size;
+        var buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, offset + buffer.position());
+        }
+        size += bytes.length;
+
+        var view = channel.map(FileChannel.MapMode.READ_ONLY, offset, bytes.length);
+        // Each stream gets its own duplicate, so that they don't share positions
+        return () -> new BufferInputStream(view.duplicate());
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            // Windows refuses to delete files that are still mapped, try again when the game closes
+            path.toFile().deleteOnExit();
+            JsonPatcher.RELOAD_LOGGER.debug("Failed to delete spill file {} right away", path, e);
+        }
+    }
+
+    private static class BufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        private BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!buffer.hasRemaining()) return len == 0 ? 0 : -1;
+            len = Math.min(len, buffer.remaining());
+            buffer.get(b, off, len);
+            return len;
+        }
+
+        @Override
+        public long skip(long n) {
+            var skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
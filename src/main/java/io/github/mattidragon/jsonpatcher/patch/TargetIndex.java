@@ -0,0 +1,213 @@
+package io.github.mattidragon.jsonpatcher.patch;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableSet;
+import net.minecraft.util.Identifier;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * An index of patch targets for finding the patches that apply to a file.
+ * Targets are compiled once when the index is built, and then bucketed by the most selective part of them:
+ * full ids, namespaces and paths in hash maps, and split paths in a prefix or suffix trie depending on which part is longer.
+ * Only targets with nothing but a regex have to be checked for every file.
+ */
+final class TargetIndex {
+    private final ImmutableListMultimap<Identifier, Entry> idEntries;
+    private final ImmutableListMultimap<String, Entry> namespaceEntries;
+    private final ImmutableListMultimap<String, Entry> pathEntries;
+    private final TrieNode prefixTrie;
+    private final TrieNode suffixTrie;
+    private final ImmutableList<Entry> unindexedEntries;
+    // Namespaces that targets are limited to, or null if some target matches any namespace
+    private final @Nullable ImmutableSet<String> namespaces;
+
+    TargetIndex(Collection<Patch> patches) {
+        var idEntries = ImmutableListMultimap.<Identifier, Entry>builder();
+        var namespaceEntries = ImmutableListMultimap.<String, Entry>builder();
+        var pathEntries = ImmutableListMultimap.<String, Entry>builder();
+        var prefixTrie = new TrieBuilder();
+        var suffixTrie = new TrieBuilder();
+        var unindexedEntries = ImmutableList.<Entry>builder();
+        var namespaces = ImmutableSet.<String>builder();
+        var anyNamespace = false;
+
+        for (var patch : patches) {
+            for (var target : patch.target()) {
+                var entry = new Entry(patch, CompiledTarget.compile(target));
+                var compiled = entry.target;
+                if (compiled.namespace != null) {
+                    namespaces.add(compiled.namespace);
+                } else {
+                    anyNamespace = true;
+                }
+
+                if (compiled.path != null) {
+                    if (compiled.namespace != null) {
+                        var id = Identifier.tryParse(compiled.namespace + ":" + compiled.path);
+                        if (id == null) continue; // Invalid id, can't match anything
+                        idEntries.put(id, entry);
+                    } else {
+                        pathEntries.put(compiled.path, entry);
+                    }
+                } else if (compiled.start != null && compiled.end != null) {
+                    // Index by the longer part, it's likely the more selective one
+                    if (compiled.start.length() >= compiled.end.length()) {
+                        prefixTrie.add(compiled.start, false, entry);
+                    } else {
+                        suffixTrie.add(compiled.end, true, entry);
+                    }
+                } else if (compiled.namespace != null) {
+                    namespaceEntries.put(compiled.namespace, entry);
+                } else {
+                    unindexedEntries.add(entry);
+                }
+            }
+        }
+
+        this.idEntries = idEntries.build();
+        this.namespaceEntries = namespaceEntries.build();
+        this.pathEntries = pathEntries.build();
+        this.prefixTrie = prefixTrie.build();
+        this.suffixTrie = suffixTrie.build();
+        this.unindexedEntries = unindexedEntries.build();
+        this.namespaces = anyNamespace ? null : namespaces.build();
+    }
+
+    /**
+     * A quick check for whether any target could match an id in a namespace.
+     * Most targets are limited to a few namespaces, so this rules out most files without any further lookups.
+     */
+    boolean mayMatchNamespace(String namespace) {
+        return namespaces == null || namespaces.contains(namespace);
+    }
+
+    boolean filtersNamespaces() {
+        return namespaces != null;
+    }
+
+    /**
+     * Calls the consumer with the patch of every matching target. Patches with multiple matching targets are passed multiple times.
+     */
+    void forEachMatch(Identifier id, Consumer<Patch> consumer) {
+        var lookup = new Lookup(id);
+        forEachMatch(idEntries.get(id), lookup, consumer);
+        forEachMatch(namespaceEntries.get(id.getNamespace()), lookup, consumer);
+        forEachMatch(pathEntries.get(id.getPath()), lookup, consumer);
+        forEachMatch(unindexedEntries, lookup, consumer);
+        prefixTrie.forEachMatch(id.getPath(), false, lookup, consumer);
+        suffixTrie.forEachMatch(id.getPath(), true, lookup, consumer);
+    }
+
+    private static void forEachMatch(List<Entry> entries, Lookup lookup, Consumer<Patch> consumer) {
+        // Indexed loop to avoid iterator allocation
+        for (int i = 0; i < entries.size(); i++) {
+            var entry = entries.get(i);
+            if (entry.target.test(lookup)) consumer.accept(entry.patch);
+        }
+    }
+
+    /**
+     * The id being looked up. The string form is only created if a regex needs it.
+     */
+    private static final class Lookup {
+        private final Identifier id;
+        private @Nullable String string;
+
+        private Lookup(Identifier id) {
+            this.id = id;
+        }
+
+        private String string() {
+            if (string == null) string = id.toString();
+            return string;
+        }
+    }
+
+    private record Entry(Patch patch, CompiledTarget target) {
+    }
+
+    /**
+     * A {@link PatchTarget} with the optionals unwrapped and the regex compiled.
+     */
+    private record CompiledTarget(@Nullable String namespace,
+                                  @Nullable String path,
+                                  @Nullable String start,
+                                  @Nullable String end,
+                                  @Nullable Pattern regex) {
+        private static CompiledTarget compile(PatchTarget target) {
+            var path = target.path().flatMap(value -> value.path().left()).orElse(null);
+            var splitPath = target.path().flatMap(value -> value.path().right()).orElse(null);
+            return new CompiledTarget(target.namespace().orElse(null),
+                    path,
+                    splitPath == null ? null : splitPath.getFirst(),
+                    splitPath == null ? null : splitPath.getSecond(),
+                    target.regex().map(Pattern::compile).orElse(null));
+        }
+
+        private boolean test(Lookup lookup) {
+            var id = lookup.id;
+            if (namespace != null && !namespace.equals(id.getNamespace())) return false;
+            if (path != null && !path.equals(id.getPath())) return false;
+            if (start != null && !id.getPath().startsWith(start)) return false;
+            if (end != null && !id.getPath().endsWith(end)) return false;
+            return regex == null || regex.matcher(lookup.string()).matches();
+        }
+    }
+
+    /**
+     * An immutable trie node. Children are stored in sorted arrays and found with a binary search.
+     * Entries of a node match every string that begins (or ends, for suffix tries) with the key leading to the node.
+     */
+    private record TrieNode(char[] keys, TrieNode[] children, List<Entry> entries) {
+        private static final TrieNode EMPTY = new TrieNode(new char[0], new TrieNode[0], List.of());
+
+        private void forEachMatch(String string, boolean reversed, Lookup lookup, Consumer<Patch> consumer) {
+            var node = this;
+            for (int i = 0; node != null; i++) {
+                TargetIndex.forEachMatch(node.entries, lookup, consumer);
+                if (i == string.length()) break;
+                node = node.child(string.charAt(reversed ? string.length() - 1 - i : i));
+            }
+        }
+
+        @Nullable
+        private TrieNode child(char key) {
+            var index = Arrays.binarySearch(keys, key);
+            return index < 0 ? null : children[index];
+        }
+    }
+
+    private static final class TrieBuilder {
+        private final TreeMap<Character, TrieBuilder> children = new TreeMap<>();
+        private final ImmutableList.Builder<Entry> entries = ImmutableList.builder();
+        private boolean empty = true;
+
+        private void add(String key, boolean reversed, Entry entry) {
+            var node = this;
+            node.empty = false;
+            for (int i = 0; i < key.length(); i++) {
+                node = node.children.computeIfAbsent(key.charAt(reversed ? key.length() - 1 - i : i), c -> new TrieBuilder());
+                node.empty = false;
+            }
+            node.entries.add(entry);
+        }
+
+        private TrieNode build() {
+            if (empty) return TrieNode.EMPTY;
+            var keys = new char[children.size()];
+            var nodes = new TrieNode[children.size()];
+            var i = 0;
+            for (var child : children.entrySet()) {
+                keys[i] = child.getKey();
+                nodes[i] = child.getValue().build();
+                i++;
+            }
+            return new TrieNode(keys, nodes, entries.build());
+        }
+    }
+}